@@ -3,11 +3,20 @@ package plc.project;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * See the specification for information about what the different visit
@@ -16,8 +25,18 @@ import java.util.Optional;
 
 public final class Analyzer implements Ast.Visitor<Void> {
 
+    private static final int PARALLEL_THRESHOLD = 64;
+
     public Scope scope;
     private Ast.Function function;
+    private final Map<String, Environment.Variable> globals;
+    private final Map<String, Dependencies> dependencies = new ConcurrentHashMap<String, Dependencies>();
+    private final Dependencies current;
+    private final boolean collect;
+    private final List<Diagnostic> diagnostics;
+    private final Map<Ast, List<Diagnostic>> signatureDiagnostics = new IdentityHashMap<Ast, List<Diagnostic>>();
+    private final Map<Ast, List<Diagnostic>> bodyDiagnostics = new IdentityHashMap<Ast, List<Diagnostic>>();
+    private int slots = 0;
 
     private static HashMap<String, HashSet<String>> types = new HashMap<String, HashSet<String>>() {{
         put("Any", new HashSet<String>(Arrays.asList("Any", "Comparable", "Boolean", "Integer", "Decimal", "Character", "String")));
@@ -26,37 +45,214 @@ public final class Analyzer implements Ast.Visitor<Void> {
     }};
 
     public Analyzer(Scope parent) {
+        this(parent, false);
+    }
+
+    /**
+     * Creates an analyzer that, if {@code collect} is set, records every error
+     * as a {@link Diagnostic} and keeps analyzing instead of throwing at the
+     * first one. Expressions with errors get {@link Environment.Type#ERROR},
+     * which is accepted wherever a type is checked, so an error is reported
+     * once rather than again by every enclosing expression.
+     */
+    public Analyzer(Scope parent, boolean collect) {
         scope = new Scope(parent);
+        globals = new HashMap<String, Environment.Variable>();
+        current = null;
+        this.collect = collect;
+        diagnostics = new ArrayList<Diagnostic>();
         scope.defineFunction("print", "System.out.println", Arrays.asList(Environment.Type.ANY), Environment.Type.NIL, args -> Environment.NIL);
     }
 
+    /**
+     * Creates a worker analyzer for the body of a single function. Workers only
+     * read from the enclosing (global) scope, so several of them can run at
+     * once as long as no signatures are being defined.
+     */
+    private Analyzer(Scope scope, Ast.Function function, Map<String, Environment.Variable> globals, Dependencies current,
+                     boolean collect, List<Diagnostic> diagnostics) {
+        this.scope = scope;
+        this.function = function;
+        this.globals = globals;
+        this.current = current;
+        this.collect = collect;
+        this.diagnostics = diagnostics;
+    }
+
     public Scope getScope() {
         return scope;
     }
 
+    /**
+     * Returns the errors found so far when collecting diagnostics, in source
+     * order. Errors found by {@link #reanalyze} are appended, and those of the
+     * replaced function and of the re-checked functions are removed.
+     */
+    public List<Diagnostic> getDiagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    /**
+     * Returns the dependencies recorded for each analyzed function, keyed by
+     * {@code name/arity} as in {@link Scope}.
+     */
+    public Map<String, Dependencies> getDependencies() {
+        return Collections.unmodifiableMap(dependencies);
+    }
+
+    /**
+     * Replaces the function at {@code index} of an already analyzed source and
+     * re-analyzes only what the edit can affect. If the signature is unchanged
+     * the existing {@link Environment.Function} is kept and only the edited
+     * body is checked; otherwise the function is redefined and every function
+     * that calls the old or new signature is checked again.
+     */
+    public void reanalyze(Ast.Source ast, int index, Ast.Function edited) {
+        Ast.Function previous = ast.getFunctions().set(index, edited);
+        Environment.Function function = previous.getFunction();
+        String previousKey = key(previous);
+        String editedKey = key(edited);
+        forget(signatureDiagnostics, previous);
+        forget(bodyDiagnostics, previous);
+
+        int start = diagnostics.size();
+        List<Environment.Type> parameterTypes = new ArrayList<Environment.Type>();
+        for (String parameterTypeName : edited.getParameterTypeNames()) {
+            parameterTypes.add(type(edited, parameterTypeName));
+        }
+        Environment.Type returnType = edited.getReturnTypeName().isPresent() ? type(edited, edited.getReturnTypeName().get()) : Environment.Type.NIL;
+        record(signatureDiagnostics, edited, start);
+
+        if (previousKey.equals(editedKey) && function.getParameterTypes().equals(parameterTypes) && function.getReturnType() == returnType) {
+            edited.setFunction(function);
+            start = diagnostics.size();
+            check(edited, diagnostics);
+            record(bodyDiagnostics, edited, start);
+            classify(ast.getFunctions());
+            return;
+        }
+
+        // declaring reports the signature errors again
+        forget(signatureDiagnostics, edited);
+        scope.removeFunction(function.getName(), function.getArity());
+        dependencies.remove(previousKey);
+        start = diagnostics.size();
+        declare(edited);
+        record(signatureDiagnostics, edited, start);
+        start = diagnostics.size();
+        check(edited, diagnostics);
+        record(bodyDiagnostics, edited, start);
+
+        for (Ast.Function dependent : ast.getFunctions()) {
+            if (dependent == edited) continue;
+            Dependencies recorded = dependencies.get(key(dependent));
+            if (recorded == null || recorded.functions.contains(previousKey) || recorded.functions.contains(editedKey)) {
+                forget(bodyDiagnostics, dependent);
+                start = diagnostics.size();
+                check(dependent, diagnostics);
+                record(bodyDiagnostics, dependent, start);
+            }
+        }
+        classify(ast.getFunctions());
+        forget(bodyDiagnostics, ast);
+        start = diagnostics.size();
+        checkMain(ast);
+        record(bodyDiagnostics, ast, start);
+    }
+
+    /**
+     * Records the diagnostics reported since {@code start} as belonging to
+     * {@code owner}, so that {@link #reanalyze} can remove them later.
+     */
+    private void record(Map<Ast, List<Diagnostic>> owned, Ast owner, int start) {
+        if (diagnostics.size() == start) return;
+        owned.computeIfAbsent(owner, key -> new ArrayList<Diagnostic>()).addAll(diagnostics.subList(start, diagnostics.size()));
+    }
+
+    /**
+     * Removes the diagnostics recorded for {@code owner}. Diagnostics are equal
+     * by value, so they are matched by identity to keep those of other nodes.
+     */
+    private void forget(Map<Ast, List<Diagnostic>> owned, Ast owner) {
+        List<Diagnostic> removed = owned.remove(owner);
+        if (removed == null) return;
+        Set<Diagnostic> identities = Collections.newSetFromMap(new IdentityHashMap<Diagnostic, Boolean>());
+        identities.addAll(removed);
+        diagnostics.removeIf(identities::contains);
+    }
+
     @Override
     public Void visit(Ast.Source ast) {
         for (Ast.Global global : ast.getGlobals()) {
             visit(global);
         }
 
-        for (Ast.Function function : ast.getFunctions()) {
-            visit(function);
+        // phase one: every signature is known before any body is checked
+        List<Ast.Function> functions = ast.getFunctions();
+        for (Ast.Function function : functions) {
+            int start = diagnostics.size();
+            declare(function);
+            record(signatureDiagnostics, function, start);
+        }
+
+        // phase two: bodies only read the global scope and can be checked in parallel
+        if (functions.size() < PARALLEL_THRESHOLD) {
+            for (Ast.Function function : functions) {
+                int start = diagnostics.size();
+                check(function, diagnostics);
+                record(bodyDiagnostics, function, start);
+            }
+        }
+        else {
+            List<List<Diagnostic>> reported = new ArrayList<List<Diagnostic>>();
+            for (int i = 0; i < functions.size(); i++) {
+                reported.add(new ArrayList<Diagnostic>());
+            }
+            List<RuntimeException> errors = IntStream.range(0, functions.size()).parallel()
+                .mapToObj(i -> {
+                    try {
+                        check(functions.get(i), reported.get(i));
+                        return null;
+                    }
+                    catch (RuntimeException e) {
+                        return e;
+                    }
+                })
+                .collect(Collectors.toList());
+            // report the error of the first function in source order, regardless of scheduling
+            for (RuntimeException error : errors) {
+                if (error != null) throw error;
+            }
+            for (int i = 0; i < functions.size(); i++) {
+                int start = diagnostics.size();
+                diagnostics.addAll(reported.get(i));
+                record(bodyDiagnostics, functions.get(i), start);
+            }
         }
 
-        Environment.Function mainFunction = scope.lookupFunction("main", 0);
-        if (mainFunction.getReturnType() != Environment.Type.INTEGER) throw new RuntimeException("Main function does not have Integer return type!");
+        classify(functions);
+        int start = diagnostics.size();
+        checkMain(ast);
+        record(bodyDiagnostics, ast, start);
         return null;
     }
 
+    private void checkMain(Ast.Source ast) {
+        Optional<Environment.Function> mainFunction = scope.findFunction("main", 0);
+        if (!mainFunction.isPresent()) error(ast, "The function main/0 is not defined in this scope.");
+        else if (!isAssignable(Environment.Type.INTEGER, mainFunction.get().getReturnType())) error(ast, "Main function does not have Integer return type!");
+    }
+
     @Override
     public Void visit(Ast.Global ast) {
+        Environment.Type type = type(ast, ast.getTypeName());
         if (ast.getValue().isPresent()) {
             Ast.Expression expression = ast.getValue().get();
             visit(expression);
-            requireAssignable(Environment.getType(ast.getTypeName()), expression.getType()); // set type of declaration
+            requireAssignable(expression, type, expression.getType()); // set type of declaration
         }
-        Environment.Variable variable = scope.defineVariable(ast.getName(), ast.getName(), Environment.getType(ast.getTypeName()), ast.getMutable(), Environment.NIL);
+        Environment.Variable variable = define(ast, ast.getName(), type, ast.getMutable());
+        globals.put(ast.getName(), variable);
 
         ast.setVariable(variable);
 
@@ -65,35 +261,101 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Function ast) {
+        declare(ast);
+        check(ast, diagnostics);
+        return null;
+    }
+
+    /**
+     * Defines the signature of the function in the current scope.
+     */
+    private Environment.Function declare(Ast.Function ast) {
         List<Environment.Type> parameterTypes = new ArrayList<Environment.Type>();
-        for (int i = 0; i < ast.getParameters().size(); i++) {
-            String parameter = ast.getParameters().get(i);
-            String parameterTypeName = ast.getParameterTypeNames().get(i);
-            scope.defineVariable(parameter, parameter, Environment.getType(parameterTypeName), true, Environment.NIL);
+        for (String parameterTypeName : ast.getParameterTypeNames()) {
+            parameterTypes.add(type(ast, parameterTypeName));
         }
 
-        Environment.Type expectedReturnType = ast.getReturnTypeName().isPresent() ? Environment.getType(ast.getReturnTypeName().get()) : Environment.Type.NIL;
-        Environment.Function function = scope.defineFunction(ast.getName(), ast.getName(), parameterTypes, expectedReturnType,
-            (List<Environment.PlcObject> args) -> { return Environment.NIL; });
-        scope = new Scope(scope);
+        Environment.Type returnType = ast.getReturnTypeName().isPresent() ? type(ast, ast.getReturnTypeName().get()) : Environment.Type.NIL;
+        Environment.Function function;
+        if (scope.definesFunction(ast.getName(), parameterTypes.size())) {
+            error(ast, "The function " + ast.getName() + "/" + parameterTypes.size() + " is already defined in this scope.");
+            function = new Environment.Function(ast.getName(), ast.getName(), parameterTypes, returnType, args -> Environment.NIL);
+        }
+        else {
+            function = scope.defineFunction(ast.getName(), ast.getName(), parameterTypes, returnType,
+                (List<Environment.PlcObject> args) -> { return Environment.NIL; });
+        }
+
+        ast.setFunction(function);
+        return function;
+    }
+
+    /**
+     * Checks the body of an already declared function using a worker with its
+     * own child scope, adding any diagnostics to {@code reported}.
+     */
+    private void check(Ast.Function ast, List<Diagnostic> reported) {
+        Dependencies recorded = new Dependencies();
+        Analyzer worker = new Analyzer(new Scope(scope), ast, globals, recorded, collect, reported);
+        List<Environment.Type> parameterTypes = ast.getFunction().getParameterTypes();
+        for (int i = 0; i < ast.getParameters().size(); i++) {
+            worker.define(ast, ast.getParameters().get(i), parameterTypes.get(i), true);
+        }
 
-        Environment.Type returnType = Environment.Type.NIL;
         for (Ast.Statement statement : ast.getStatements()) {
-            visit(statement);
-            if (statement instanceof Ast.Statement.Return) {
-                requireAssignable(expectedReturnType, ((Ast.Statement.Return) statement).getValue().getType());
-            }
+            worker.visit(statement);
         }
+        ast.setFrameSize(worker.slots);
+        dependencies.put(key(ast), recorded);
+    }
 
-        ast.setFunction(function);
-        scope = scope.getParent();
-        return null;
+    /**
+     * Marks each function as pure if it does not assign globals or list
+     * elements, reads only immutable globals, and calls only pure functions of
+     * the same source (so never builtins such as {@code print}). Recursive
+     * calls are allowed, as the classification starts from every candidate
+     * and removes functions until no impure call remains.
+     */
+    private void classify(List<Ast.Function> functions) {
+        Set<String> pure = new HashSet<String>();
+        Set<String> keys = new HashSet<String>();
+        for (Ast.Function function : functions) {
+            keys.add(key(function));
+        }
+        for (Ast.Function function : functions) {
+            Dependencies recorded = dependencies.get(key(function));
+            if (recorded == null || recorded.mutates || !keys.containsAll(recorded.functions)) continue;
+            if (recorded.globals.stream().noneMatch(name -> globals.get(name).getMutable())) pure.add(key(function));
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = pure.removeIf(key -> !pure.containsAll(dependencies.get(key).functions));
+        }
+        for (Ast.Function function : functions) {
+            function.setPure(pure.contains(key(function)));
+        }
+    }
+
+    private static String key(Ast.Function ast) {
+        return ast.getName() + "/" + ast.getParameters().size();
+    }
+
+    /**
+     * Returns whether a block declares variables directly; nested blocks have
+     * scopes of their own.
+     */
+    private static boolean declares(List<Ast.Statement> statements) {
+        for (Ast.Statement statement : statements) {
+            if (statement instanceof Ast.Statement.Declaration) return true;
+        }
+        return false;
     }
 
     @Override
     public Void visit(Ast.Statement.Expression ast) {
         Ast.Expression expression = ast.getExpression();
-        if (!(expression instanceof Ast.Expression.Function)) throw new RuntimeException("Invalid statement!");
+        if (!(expression instanceof Ast.Expression.Function)) error(ast, "Invalid statement!");
 
         visit(expression);
         return null;
@@ -108,11 +370,14 @@ public final class Analyzer implements Ast.Visitor<Void> {
             type = expression.getType();
         }
         if (ast.getTypeName().isPresent()) {
-            if (type != Environment.Type.NIL) requireAssignable(Environment.getType(ast.getTypeName().get()), type); // set type of declaration
-            else type = Environment.getType(ast.getTypeName().get());
+            if (type != Environment.Type.NIL) requireAssignable(ast.getValue().get(), type(ast, ast.getTypeName().get()), type); // set type of declaration
+            else type = type(ast, ast.getTypeName().get());
+        }
+        if (type == Environment.Type.NIL) {
+            error(ast, "No types given!");
+            type = Environment.Type.ERROR;
         }
-        if (type == Environment.Type.NIL) throw new RuntimeException("No types given!");
-        Environment.Variable variable = scope.defineVariable(ast.getName(), ast.getName(), type, true, Environment.NIL);
+        Environment.Variable variable = define(ast, ast.getName(), type, true);
 
         ast.setVariable(variable);
 
@@ -121,13 +386,18 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Statement.Assignment ast) {
-        if (!(ast.getReceiver() instanceof Ast.Expression.Access)) throw new RuntimeException("Reciever not of type Ast.Expression.Access!");
+        if (!(ast.getReceiver() instanceof Ast.Expression.Access)) {
+            error(ast, "Reciever not of type Ast.Expression.Access!");
+            visit(ast.getValue());
+            return null;
+        }
         Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
         visit(receiver);
+        if (current != null && (receiver.getOffset().isPresent() || globals.get(receiver.getName()) == receiver.getVariable())) current.mutates = true;
 
         Ast.Expression value = ast.getValue();
         visit(value);
-        requireAssignable(receiver.getType(), value.getType());
+        requireAssignable(value, receiver.getType(), value.getType());
 
         return null;
     }
@@ -136,8 +406,9 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Void visit(Ast.Statement.If ast) {
         Ast.Expression condition = ast.getCondition();
         visit(condition);
-        if (condition.getType() != Environment.Type.BOOLEAN) throw new RuntimeException("If statement condition is not of type Boolean!");
-        if (ast.getThenStatements().size() == 0) throw new RuntimeException("No then statements of if statement!");
+        if (!isAssignable(Environment.Type.BOOLEAN, condition.getType())) error(condition, "If statement condition is not of type Boolean!");
+        if (ast.getThenStatements().size() == 0) error(ast, "No then statements of if statement!");
+        ast.setScoped(declares(ast.getThenStatements()) || declares(ast.getElseStatements()));
 
         scope = new Scope(scope);
         for (Ast.Statement statement : ast.getThenStatements()) {
@@ -165,12 +436,12 @@ public final class Analyzer implements Ast.Visitor<Void> {
         for (int i = 0; i < cases.size(); i++) {
             Optional<Ast.Expression> caseValue = cases.get(i).getValue();
             if (caseValue.isPresent()) {
-                if (i == cases.size() - 1) throw new RuntimeException("Default case has a value!");
+                if (i == cases.size() - 1) error(cases.get(i), "Default case has a value!");
                 Ast.Expression value = caseValue.get();
                 visit(value);
-                requireAssignable(conditionType, value.getType());
+                requireAssignable(value, conditionType, value.getType());
             }
-            else if (i != cases.size() - 1) throw new RuntimeException("Missing case value!");
+            else if (i != cases.size() - 1) error(cases.get(i), "Missing case value!");
             visit(cases.get(i));
         }
 
@@ -179,6 +450,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
 
     @Override
     public Void visit(Ast.Statement.Case ast) {
+        ast.setScoped(declares(ast.getStatements()));
         scope = new Scope(scope);
 
         for (Ast.Statement statement : ast.getStatements()) {
@@ -193,7 +465,8 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Void visit(Ast.Statement.While ast) {
         Ast.Expression condition = ast.getCondition();
         visit(condition);
-        if (condition.getType() != Environment.Type.BOOLEAN) throw new RuntimeException("While statement condition is not of type Boolean!");
+        if (!isAssignable(Environment.Type.BOOLEAN, condition.getType())) error(condition, "While statement condition is not of type Boolean!");
+        ast.setScoped(declares(ast.getStatements()));
 
         scope = new Scope(scope);
 
@@ -209,6 +482,11 @@ public final class Analyzer implements Ast.Visitor<Void> {
     public Void visit(Ast.Statement.Return ast) {
         Ast.Expression returnExpression = ast.getValue();
         visit(returnExpression);
+        if (function != null) requireAssignable(returnExpression, function.getFunction().getReturnType(), returnExpression.getType());
+        // functions are only defined globally, so the name and arity identify the function
+        ast.setTail(function != null && returnExpression instanceof Ast.Expression.Function
+                && ((Ast.Expression.Function) returnExpression).getName().equals(function.getName())
+                && ((Ast.Expression.Function) returnExpression).getArguments().size() == function.getParameters().size());
 
         return null;
     }
@@ -218,13 +496,13 @@ public final class Analyzer implements Ast.Visitor<Void> {
         Object literal = ast.getLiteral();
         if (literal instanceof BigInteger) {
             BigInteger temp = (BigInteger) literal;
-            if (temp.bitCount() > 32) throw new RuntimeException("Exceeding int range!");
+            if (temp.bitCount() > 32) error(ast, "Exceeding int range!");
             ast.setType(Environment.getType("Integer"));
         }
         else if (literal instanceof BigDecimal) {
             BigDecimal temp = (BigDecimal) literal;
             double temp2 = temp.doubleValue();
-            if (Double.isInfinite(temp2)) throw new RuntimeException("Exceeding double range!");
+            if (Double.isInfinite(temp2)) error(ast, "Exceeding double range!");
             ast.setType(Environment.getType("Decimal"));
         }
         else if (literal instanceof String) ast.setType(Environment.getType("String"));
@@ -238,7 +516,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
     @Override
     public Void visit(Ast.Expression.Group ast) {
         Ast.Expression expression = ast.getExpression();
-        if (!(expression instanceof Ast.Expression.Binary)) throw new RuntimeException("Enclosed expression is not of type Ast.Expression.Binary!");
+        if (!(expression instanceof Ast.Expression.Binary)) error(ast, "Enclosed expression is not of type Ast.Expression.Binary!");
         visit(expression);
         ast.setType(expression.getType());
         return null;
@@ -253,50 +531,66 @@ public final class Analyzer implements Ast.Visitor<Void> {
         visit(right);
 
         if (operator.equals("&&") || operator.equals("||")) {
-            requireAssignable(Environment.Type.BOOLEAN, left.getType());
-            requireAssignable(Environment.Type.BOOLEAN, right.getType());
+            requireAssignable(left, Environment.Type.BOOLEAN, left.getType());
+            requireAssignable(right, Environment.Type.BOOLEAN, right.getType());
             ast.setType(Environment.getType("Boolean"));
         }
 
         else if (operator.equals("<") || operator.equals(">") || operator.equals("==") || operator.equals("!=")) {
-            requireAssignable(Environment.Type.COMPARABLE, left.getType());
-            requireAssignable(Environment.Type.COMPARABLE, right.getType());
-            if (left.getType() != right.getType()) throw new RuntimeException("Right and left sides of binary expression are not of same type!");
+            requireAssignable(left, Environment.Type.COMPARABLE, left.getType());
+            requireAssignable(right, Environment.Type.COMPARABLE, right.getType());
+            if (left.getType() != right.getType() && left.getType() != Environment.Type.ERROR && right.getType() != Environment.Type.ERROR) error(ast, "Right and left sides of binary expression are not of same type!");
             ast.setType(Environment.getType("Boolean"));
         }
 
+        // an operand with an error leaves the type of the arithmetic unknown
+        else if (left.getType() == Environment.Type.ERROR || right.getType() == Environment.Type.ERROR) {
+            ast.setType(Environment.Type.ERROR);
+        }
+
         else if (operator.equals("+")) {
             if (left.getType() == Environment.Type.STRING || right.getType() == Environment.Type.STRING) {
                 ast.setType(Environment.getType("String"));
             }
             else if (left.getType() == Environment.Type.INTEGER) {
-                requireAssignable(Environment.Type.INTEGER, right.getType());
+                requireAssignable(right, Environment.Type.INTEGER, right.getType());
                 ast.setType(Environment.getType("Integer"));
             }
             else if (left.getType() == Environment.Type.DECIMAL) {
-                requireAssignable(Environment.Type.DECIMAL, right.getType());
+                requireAssignable(right, Environment.Type.DECIMAL, right.getType());
                 ast.setType(Environment.getType("Decimal"));
             }
+            else {
+                error(left, "Invalid Types!");
+                ast.setType(Environment.Type.ERROR);
+            }
         }
 
         else if (operator.equals("-") || operator.equals("*") || operator.equals("/")) {
             if (left.getType() == Environment.Type.INTEGER) {
-                requireAssignable(Environment.Type.INTEGER, right.getType());
+                requireAssignable(right, Environment.Type.INTEGER, right.getType());
                 ast.setType(Environment.getType("Integer"));
             }
             else if (left.getType() == Environment.Type.DECIMAL) {
-                requireAssignable(Environment.Type.DECIMAL, right.getType());
+                requireAssignable(right, Environment.Type.DECIMAL, right.getType());
                 ast.setType(Environment.getType("Decimal"));
             }
+            else {
+                error(left, "Invalid Types!");
+                ast.setType(Environment.Type.ERROR);
+            }
         }
 
         else if (operator.equals("^")) {
-            requireAssignable(Environment.Type.INTEGER, left.getType());
-            requireAssignable(Environment.Type.INTEGER, right.getType());
+            requireAssignable(left, Environment.Type.INTEGER, left.getType());
+            requireAssignable(right, Environment.Type.INTEGER, right.getType());
             ast.setType(Environment.getType("Integer"));
         }
 
-        else throw new RuntimeException("Invalid operator!");
+        else {
+            error(ast, "Invalid operator!");
+            ast.setType(Environment.Type.ERROR);
+        }
 
         return null;
     }
@@ -307,15 +601,23 @@ public final class Analyzer implements Ast.Visitor<Void> {
         if (offset.isPresent()) {
             Ast.Expression offsetExpression = offset.get();
             visit(offsetExpression);
-            if (offsetExpression.getType() != Environment.Type.INTEGER) throw new RuntimeException("Offset is not of type Integer!");
+            if (!isAssignable(Environment.Type.INTEGER, offsetExpression.getType())) error(offsetExpression, "Offset is not of type Integer!");
         }
-        ast.setVariable(scope.lookupVariable(ast.getName()));
+        Optional<Environment.Variable> found = scope.findVariable(ast.getName());
+        if (!found.isPresent()) error(ast, "The variable " + ast.getName() + " is not defined in this scope.");
+        Environment.Variable variable = found.orElseGet(() -> new Environment.Variable(ast.getName(), ast.getName(), Environment.Type.ERROR, true, Environment.NIL));
+        if (current != null && globals.get(ast.getName()) == variable) current.globals.add(ast.getName());
+        ast.setVariable(variable);
         return null;
     }
 
     @Override
     public Void visit(Ast.Expression.Function ast) {
-        Environment.Function function = scope.lookupFunction(ast.getName(), ast.getArguments().size());
+        Optional<Environment.Function> found = scope.findFunction(ast.getName(), ast.getArguments().size());
+        if (!found.isPresent()) error(ast, "The function " + ast.getName() + "/" + ast.getArguments().size() + " is not defined in this scope.");
+        Environment.Function function = found.orElseGet(() -> new Environment.Function(ast.getName(), ast.getName(),
+            Collections.nCopies(ast.getArguments().size(), Environment.Type.ERROR), Environment.Type.ERROR, args -> Environment.NIL));
+        if (current != null) current.functions.add(ast.getName() + "/" + ast.getArguments().size());
 
         List<Environment.Type> types = function.getParameterTypes();
         List<Ast.Expression> arguments = ast.getArguments();
@@ -323,7 +625,7 @@ public final class Analyzer implements Ast.Visitor<Void> {
         for (int i = 0; i < arguments.size(); i++) {
             Ast.Expression argument = arguments.get(i);
             visit(argument);
-            requireAssignable(types.get(i), argument.getType());
+            requireAssignable(argument, types.get(i), argument.getType());
         }
 
         ast.setFunction(function);
@@ -343,13 +645,139 @@ public final class Analyzer implements Ast.Visitor<Void> {
         return null;
     }
 
+    /**
+     * The functions (as {@code name/arity}) and globals a function body refers
+     * to, in the order they are first used, and whether it assigns a global or
+     * a list element.
+     */
+    public static final class Dependencies {
+
+        private final Set<String> functions = new LinkedHashSet<String>();
+        private final Set<String> globals = new LinkedHashSet<String>();
+        private boolean mutates = false;
+
+        public Set<String> getFunctions() {
+            return Collections.unmodifiableSet(functions);
+        }
+
+        public Set<String> getGlobals() {
+            return Collections.unmodifiableSet(globals);
+        }
+
+        public boolean getMutates() {
+            return mutates;
+        }
+
+        @Override
+        public String toString() {
+            return "Dependencies{" +
+                    "functions=" + functions +
+                    ", globals=" + globals +
+                    ", mutates=" + mutates +
+                    '}';
+        }
+
+    }
+
+    /**
+     * An error found while collecting diagnostics, and the node it was found at.
+     */
+    public static final class Diagnostic {
+
+        private final Ast ast;
+        private final String message;
+
+        public Diagnostic(Ast ast, String message) {
+            this.ast = ast;
+            this.message = message;
+        }
+
+        public Ast getAst() {
+            return ast;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Diagnostic &&
+                    ast.equals(((Diagnostic) obj).ast) &&
+                    message.equals(((Diagnostic) obj).message);
+        }
+
+        /**
+         * AST nodes compare by value but do not override {@code hashCode}, so
+         * the node only contributes its class, which equal nodes share.
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(ast.getClass(), message);
+        }
+
+        @Override
+        public String toString() {
+            return "Diagnostic{" +
+                    "ast=" + ast +
+                    ", message='" + message + '\'' +
+                    '}';
+        }
+
+    }
+
+    /**
+     * Reports an error at the given node, which throws unless diagnostics are
+     * being collected.
+     */
+    private void error(Ast ast, String message) {
+        if (!collect) throw new RuntimeException(message);
+        diagnostics.add(new Diagnostic(ast, message));
+    }
+
+    private void requireAssignable(Ast ast, Environment.Type target, Environment.Type type) {
+        if (!isAssignable(target, type)) error(ast, "Invalid Types!");
+    }
+
+    /**
+     * Looks up a type by name, reporting an error and using
+     * {@link Environment.Type#ERROR} if it does not exist.
+     */
+    private Environment.Type type(Ast ast, String name) {
+        Optional<Environment.Type> type = Environment.findType(name);
+        if (!type.isPresent()) error(ast, "Unknown type " + name + ".");
+        return type.orElse(Environment.Type.ERROR);
+    }
+
+    /**
+     * Defines a variable in the current scope, reporting an error (and
+     * returning a variable that is not in any scope) if it already exists.
+     * Within a function every variable gets the next slot of its frame, so
+     * parameters come first and variables of different blocks never share
+     * a slot.
+     */
+    private Environment.Variable define(Ast ast, String name, Environment.Type type, boolean mutable) {
+        if (scope.definesVariable(name)) {
+            error(ast, "The variable " + name + " is already defined in this scope.");
+            return new Environment.Variable(name, name, type, mutable, Environment.NIL);
+        }
+        Environment.Variable variable = scope.defineVariable(name, name, type, mutable, Environment.NIL);
+        if (function != null) variable.setSlot(slots++);
+        return variable;
+    }
+
     public static void requireAssignable(Environment.Type target, Environment.Type type) {
-        if (types.containsKey(target.getName())) {
-            if (!(types.get(target.getName()).contains(type.getName()))) throw new RuntimeException("Invalid Types!");
+        if (!isAssignable(target, type)) throw new RuntimeException("Invalid Types!");
+    }
+
+    public static boolean isAssignable(Environment.Type target, Environment.Type type) {
+        if (target == Environment.Type.ERROR || type == Environment.Type.ERROR) {
+            return true;
         }
-        else {
-            if (target.getName() != type.getName()) throw new RuntimeException("Invalid Types!");
+        if (types.containsKey(target.getName())) {
+            return types.get(target.getName()).contains(type.getName());
         }
+        return target.getName().equals(type.getName());
     }
 
 }
@@ -1,7 +1,10 @@
 package plc.project;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -125,6 +128,8 @@ public abstract class Ast {
         private final Optional<String> returnTypeName;
         private final List<Statement> statements;
         private Environment.Function function = null;
+        private boolean pure = false;
+        private int frameSize = -1;
         
         public Function(String name, List<String> parameters, List<Statement> statements) {
             this(name, parameters, new ArrayList<>(), Optional.of("Any"), statements);
@@ -173,6 +178,31 @@ public abstract class Ast {
             this.function = function;
         }
 
+        /**
+         * Whether the analyzer proved the function pure: its result depends only
+         * on its arguments and calling it has no observable effect.
+         */
+        public boolean getPure() {
+            return pure;
+        }
+
+        public void setPure(boolean pure) {
+            this.pure = pure;
+        }
+
+        /**
+         * The number of slots the analyzer assigned to the parameters and local
+         * variables of the function (see {@link Environment.Variable#getSlot()}),
+         * or {@code -1} if it has not been analyzed.
+         */
+        public int getFrameSize() {
+            return frameSize;
+        }
+
+        public void setFrameSize(int frameSize) {
+            this.frameSize = frameSize;
+        }
+
 
         @Override
         public boolean equals(Object obj) {
@@ -331,7 +361,7 @@ public abstract class Ast {
             private final Ast.Expression condition;
             private final List<Statement> thenStatements;
             private final List<Statement> elseStatements;
-
+            private boolean scoped = true;
 
             public If(Ast.Expression condition, List<Statement> thenStatements, List<Statement> elseStatements) {
                 this.condition = condition;
@@ -351,6 +381,19 @@ public abstract class Ast {
                 return elseStatements;
             }
 
+            /**
+             * Whether the statements declare variables and so need a scope of
+             * their own. This holds until the analyzer finds they do not, in
+             * which case they run in the enclosing scope.
+             */
+            public boolean getScoped() {
+                return scoped;
+            }
+
+            public void setScoped(boolean scoped) {
+                this.scoped = scoped;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof If &&
@@ -374,6 +417,8 @@ public abstract class Ast {
 
             private final Ast.Expression condition;
             private final List<Ast.Statement.Case> cases;
+            private volatile Optional<Map<Object, int[]>> dispatch = null;
+            private int defaultIndex = -1;
 
             public Switch(Ast.Expression condition, List<Ast.Statement.Case> cases) {
                 this.condition = condition;
@@ -386,6 +431,42 @@ public abstract class Ast {
 
             public List<Ast.Statement.Case> getCases() { return cases; }
 
+            /**
+             * Maps each case value to the indices of every case with that
+             * value, in order, if every value is a non-nil literal. Otherwise
+             * the values have to be evaluated, and this is empty. Built on
+             * first use, possibly by several threads at once, which build the
+             * same table.
+             */
+            public Optional<Map<Object, int[]>> getDispatch() {
+                if (dispatch == null) {
+                    Map<Object, int[]> table = new HashMap<>();
+                    for (int i = 0; i < cases.size(); i++) {
+                        Optional<Ast.Expression> value = cases.get(i).getValue();
+                        if (!value.isPresent()) {
+                            defaultIndex = i;
+                        } else if (table != null && value.get() instanceof Ast.Expression.Literal && ((Ast.Expression.Literal) value.get()).getLiteral() != null) {
+                            int[] indices = table.get(((Ast.Expression.Literal) value.get()).getLiteral());
+                            indices = (indices == null) ? new int[1] : Arrays.copyOf(indices, indices.length + 1);
+                            indices[indices.length - 1] = i;
+                            table.put(((Ast.Expression.Literal) value.get()).getLiteral(), indices);
+                        } else {
+                            table = null;
+                        }
+                    }
+                    dispatch = Optional.ofNullable(table);
+                }
+                return dispatch;
+            }
+
+            /**
+             * The index of the default case, or {@code -1} if there is none.
+             */
+            public int getDefaultIndex() {
+                getDispatch();
+                return defaultIndex;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Switch &&
@@ -407,6 +488,7 @@ public abstract class Ast {
 
             private final Optional<Ast.Expression> value;
             private final List<Statement> statements;
+            private boolean scoped = true;
 
             public Case(Optional<Ast.Expression> value, List<Statement> statements) {
                 this.value = value;
@@ -421,6 +503,17 @@ public abstract class Ast {
                 return statements;
             }
 
+            /**
+             * See {@link If#getScoped()}.
+             */
+            public boolean getScoped() {
+                return scoped;
+            }
+
+            public void setScoped(boolean scoped) {
+                this.scoped = scoped;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Case &&
@@ -442,6 +535,7 @@ public abstract class Ast {
 
             private final Ast.Expression condition;
             private final List<Statement> statements;
+            private boolean scoped = true;
 
             public While(Ast.Expression condition, List<Statement> statements) {
                 this.condition = condition;
@@ -456,6 +550,17 @@ public abstract class Ast {
                 return statements;
             }
 
+            /**
+             * See {@link If#getScoped()}.
+             */
+            public boolean getScoped() {
+                return scoped;
+            }
+
+            public void setScoped(boolean scoped) {
+                this.scoped = scoped;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof While &&
@@ -476,6 +581,7 @@ public abstract class Ast {
         public static final class Return extends Statement {
 
             private final Ast.Expression value;
+            private boolean tail = false;
 
             public Return(Ast.Expression value) {
                 this.value = value;
@@ -485,6 +591,19 @@ public abstract class Ast {
                 return value;
             }
 
+            /**
+             * Whether the analyzer found the value is a call of the enclosing
+             * function, which can then reuse the caller's frame instead of
+             * recursing.
+             */
+            public boolean getTail() {
+                return tail;
+            }
+
+            public void setTail(boolean tail) {
+                this.tail = tail;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Return &&
@@ -600,6 +719,7 @@ public abstract class Ast {
             private final Ast.Expression left;
             private final Ast.Expression right;
             private Environment.Type type = null;
+            private boolean primitive = false;
 
             public Binary(String operator, Ast.Expression left, Ast.Expression right) {
                 this.operator = operator;
@@ -631,6 +751,19 @@ public abstract class Ast {
                 this.type = type;
             }
 
+            /**
+             * Whether range analysis proved that both operands and the result of
+             * this Integer expression fit in a {@code long}, so it can be
+             * evaluated with primitive arithmetic and no overflow checks.
+             */
+            public boolean getPrimitive() {
+                return primitive;
+            }
+
+            public void setPrimitive(boolean primitive) {
+                this.primitive = primitive;
+            }
+
             @Override
             public boolean equals(Object obj) {
                 return obj instanceof Binary &&
@@ -713,10 +846,12 @@ public abstract class Ast {
             private final String name;
             private final List<Ast.Expression> arguments;
             private Environment.Function function = null;
+            private final Scope.CallCache callCache;
 
             public Function(String name, List<Ast.Expression> arguments) {
                 this.name = name;
                 this.arguments = arguments;
+                this.callCache = new Scope.CallCache(name, arguments.size());
             }
 
             public String getName() {
@@ -738,6 +873,13 @@ public abstract class Ast {
                 this.function = function;
             }
 
+            /**
+             * The cache the interpreter resolves this call through.
+             */
+            public Scope.CallCache getCallCache() {
+                return callCache;
+            }
+
             @Override
             public Environment.Type getType() {
                 return getFunction().getReturnType();
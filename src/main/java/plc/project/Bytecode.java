@@ -0,0 +1,221 @@
+package plc.project;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A source compiled to register based bytecode by the {@link BytecodeCompiler}
+ * and run by the {@link VirtualMachine}.
+ *
+ * Every function has a frame of registers. The first registers hold the
+ * parameters and local variables in the slots the {@link Analyzer} assigned
+ * them, the rest hold temporaries. Instructions are an opcode followed by a
+ * fixed number of operands, all stored in one {@code int[]} per function.
+ * Operands refer to registers, the program wide constant pool, globals,
+ * functions or absolute positions in the code, as described by each opcode.
+ */
+public final class Bytecode {
+
+    /** {@code LOAD_CONST r k}: r = constants[k] */
+    public static final int LOAD_CONST = 0;
+    /** {@code MOVE r s}: r = s */
+    public static final int MOVE = 1;
+    /** {@code LOAD_GLOBAL r g}: r = globals[g] */
+    public static final int LOAD_GLOBAL = 2;
+    /** {@code STORE_GLOBAL g r}: globals[g] = r */
+    public static final int STORE_GLOBAL = 3;
+    /** {@code LOAD_ELEMENT r l i}: r = l[i] */
+    public static final int LOAD_ELEMENT = 4;
+    /** {@code STORE_ELEMENT l i r}: l[i] = r */
+    public static final int STORE_ELEMENT = 5;
+    /** {@code ADD_INT r a b}: r = a + b, and likewise for the following arithmetic and comparisons */
+    public static final int ADD_INT = 6;
+    public static final int SUBTRACT_INT = 7;
+    public static final int MULTIPLY_INT = 8;
+    public static final int DIVIDE_INT = 9;
+    public static final int POWER = 10;
+    public static final int ADD_DECIMAL = 11;
+    public static final int SUBTRACT_DECIMAL = 12;
+    public static final int MULTIPLY_DECIMAL = 13;
+    public static final int DIVIDE_DECIMAL = 14;
+    public static final int CONCATENATE = 15;
+    public static final int LESS = 16;
+    public static final int GREATER = 17;
+    public static final int EQUAL = 18;
+    public static final int NOT_EQUAL = 19;
+    /** {@code JUMP t}: continue at t */
+    public static final int JUMP = 20;
+    /** {@code JUMP_IF_FALSE r t}: continue at t if r is false */
+    public static final int JUMP_IF_FALSE = 21;
+    /** {@code JUMP_IF_TRUE r t}: continue at t if r is true */
+    public static final int JUMP_IF_TRUE = 22;
+    /** {@code CALL r f a n}: r = functions[f](a, ..., a + n - 1) */
+    public static final int CALL = 23;
+    /** {@code PRINT r s}: prints s, r = NIL */
+    public static final int PRINT = 24;
+    /** {@code RETURN r}: returns r to the caller */
+    public static final int RETURN = 25;
+    /** {@code LIST r a n}: r = [a, ..., a + n - 1] */
+    public static final int LIST = 26;
+    /** {@code FAIL k}: throws an error with the message constants[k] */
+    public static final int FAIL = 27;
+
+    private static final String[] NAMES = {
+            "LOAD_CONST", "MOVE", "LOAD_GLOBAL", "STORE_GLOBAL", "LOAD_ELEMENT", "STORE_ELEMENT",
+            "ADD_INT", "SUBTRACT_INT", "MULTIPLY_INT", "DIVIDE_INT", "POWER",
+            "ADD_DECIMAL", "SUBTRACT_DECIMAL", "MULTIPLY_DECIMAL", "DIVIDE_DECIMAL", "CONCATENATE",
+            "LESS", "GREATER", "EQUAL", "NOT_EQUAL", "JUMP", "JUMP_IF_FALSE", "JUMP_IF_TRUE",
+            "CALL", "PRINT", "RETURN", "LIST", "FAIL"
+    };
+
+    /**
+     * The operands of each opcode: (r)egister, (k)onstant, (g)lobal,
+     * (f)unction, (t)arget position or (n)umber.
+     */
+    private static final String[] OPERANDS = {
+            "rk", "rr", "rg", "gr", "rrr", "rrr",
+            "rrr", "rrr", "rrr", "rrr", "rrr",
+            "rrr", "rrr", "rrr", "rrr", "rrr",
+            "rrr", "rrr", "rrr", "rrr", "t", "rt", "rt",
+            "rfrn", "rr", "r", "rrn", "k"
+    };
+
+    private final Object[] constants;
+    private final List<Function> functions;
+    private final int globals;
+    private final int initializer;
+    private final int main;
+
+    public Bytecode(Object[] constants, List<Function> functions, int globals, int initializer, int main) {
+        this.constants = constants;
+        this.functions = functions;
+        this.globals = globals;
+        this.initializer = initializer;
+        this.main = main;
+    }
+
+    /**
+     * Returns the number of operands following the opcode.
+     */
+    public static int getOperandCount(int opcode) {
+        return OPERANDS[opcode].length();
+    }
+
+    public Object[] getConstants() {
+        return constants;
+    }
+
+    public List<Function> getFunctions() {
+        return functions;
+    }
+
+    public int getGlobals() {
+        return globals;
+    }
+
+    /**
+     * The index of the function that initializes the globals.
+     */
+    public int getInitializer() {
+        return initializer;
+    }
+
+    public int getMain() {
+        return main;
+    }
+
+    /**
+     * Returns a readable listing of every function's code.
+     */
+    public String disassemble() {
+        StringBuilder builder = new StringBuilder();
+        for (int f = 0; f < functions.size(); f++) {
+            Function function = functions.get(f);
+            builder.append(f).append(": ").append(function.getName()).append("/").append(function.getArity())
+                    .append(" (").append(function.getRegisters()).append(" registers)").append(System.lineSeparator());
+            int[] code = function.getCode();
+            for (int pc = 0; pc < code.length; pc += 1 + getOperandCount(code[pc])) {
+                builder.append(String.format("%6d  %-16s", pc, NAMES[code[pc]]));
+                String operands = OPERANDS[code[pc]];
+                for (int i = 0; i < operands.length(); i++) {
+                    int operand = code[pc + 1 + i];
+                    builder.append(i == 0 ? " " : ", ");
+                    switch (operands.charAt(i)) {
+                        case 'r':
+                            builder.append("r").append(operand);
+                            break;
+                        case 'k':
+                            builder.append("#").append(operand).append(" (").append(constant(operand)).append(")");
+                            break;
+                        case 'g':
+                            builder.append("g").append(operand);
+                            break;
+                        case 'f':
+                            builder.append(functions.get(operand).getName()).append("/").append(functions.get(operand).getArity());
+                            break;
+                        case 't':
+                            builder.append("@").append(operand);
+                            break;
+                        default:
+                            builder.append(operand);
+                    }
+                }
+                builder.append(System.lineSeparator());
+            }
+        }
+        return builder.toString();
+    }
+
+    private String constant(int index) {
+        Object constant = constants[index];
+        if (constant instanceof String) return "\"" + constant + "\"";
+        if (constant instanceof Character) return "'" + constant + "'";
+        return String.valueOf(constant);
+    }
+
+    public static final class Function {
+
+        private final String name;
+        private final int arity;
+        private final int registers;
+        private final int[] code;
+
+        public Function(String name, int arity, int registers, int[] code) {
+            this.name = name;
+            this.arity = arity;
+            this.registers = registers;
+            this.code = code;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getArity() {
+            return arity;
+        }
+
+        /**
+         * The size of the frame, starting with the parameters.
+         */
+        public int getRegisters() {
+            return registers;
+        }
+
+        public int[] getCode() {
+            return code;
+        }
+
+        @Override
+        public String toString() {
+            return "Function{" +
+                    "name='" + name + '\'' +
+                    ", arity=" + arity +
+                    ", registers=" + registers +
+                    ", code=" + Arrays.toString(code) +
+                    '}';
+        }
+
+    }
+
+}
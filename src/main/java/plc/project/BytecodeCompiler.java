@@ -0,0 +1,407 @@
+package plc.project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles an analyzed source to {@link Bytecode}. Visiting an expression
+ * emits the code computing it and returns the register holding its value,
+ * which for a local variable is simply its slot. Visiting a function returns
+ * its index, and statements return {@code null}.
+ *
+ * Temporaries are allocated above the locals of a function and released at
+ * the end of each statement, so a frame needs only as many registers as its
+ * deepest statement.
+ */
+public final class BytecodeCompiler implements Ast.Visitor<Integer> {
+
+    private static final Object NIL = Environment.NIL.getValue();
+
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    private final Map<Environment.Variable, Integer> globals = new IdentityHashMap<>();
+    private final Map<Environment.Function, Integer> functionIndices = new IdentityHashMap<>();
+    private final List<Bytecode.Function> functions = new ArrayList<>();
+
+    private int[] code = new int[64];
+    private int length;
+    private int locals;
+    private int next;
+    private int registers;
+    private int retarget = -1;
+
+    public Bytecode compile(Ast.Source ast) {
+        int main = visit(ast);
+        return new Bytecode(constants.toArray(), functions, globals.size(), functions.size() - 1, main);
+    }
+
+    /**
+     * Compiles every function and then the initializer of the globals, which
+     * comes last. Returns the index of {@code main/0}.
+     */
+    @Override
+    public Integer visit(Ast.Source ast) {
+        for (Ast.Global global : ast.getGlobals()) {
+            globals.put(global.getVariable(), globals.size());
+        }
+        for (Ast.Function function : ast.getFunctions()) {
+            functionIndices.put(function.getFunction(), functionIndices.size());
+            functions.add(null);
+        }
+        Integer main = null;
+        for (Ast.Function function : ast.getFunctions()) {
+            int index = visit(function);
+            if (function.getName().equals("main") && function.getParameters().isEmpty()) main = index;
+        }
+        if (main == null) throw new RuntimeException("The function main/0 is not defined in this scope.");
+
+        begin(0);
+        for (Ast.Global global : ast.getGlobals()) {
+            visit(global);
+        }
+        functions.add(end("<globals>", 0));
+        return main;
+    }
+
+    @Override
+    public Integer visit(Ast.Global ast) {
+        next = locals;
+        int value = ast.getValue().isPresent() ? visit(ast.getValue().get()) : constant(NIL);
+        emit(Bytecode.STORE_GLOBAL, globals.get(ast.getVariable()), value);
+        return null;
+    }
+
+    @Override
+    public Integer visit(Ast.Function ast) {
+        if (ast.getFrameSize() < 0) throw new RuntimeException("The function " + ast.getName() + " has not been analyzed.");
+        int index = functionIndices.get(ast.getFunction());
+        begin(ast.getFrameSize());
+        block(ast.getStatements());
+        functions.set(index, end(ast.getName(), ast.getParameters().size()));
+        return index;
+    }
+
+    @Override
+    public Integer visit(Ast.Statement.Expression ast) {
+        visit(ast.getExpression());
+        return null;
+    }
+
+    @Override
+    public Integer visit(Ast.Statement.Declaration ast) {
+        int slot = ast.getVariable().getSlot();
+        if (ast.getValue().isPresent()) {
+            visitInto(ast.getValue().get(), slot);
+        } else {
+            emit(Bytecode.LOAD_CONST, slot, index(NIL));
+        }
+        return null;
+    }
+
+    @Override
+    public Integer visit(Ast.Statement.Assignment ast) {
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        Environment.Variable variable = receiver.getVariable();
+        Integer global = globals.get(variable);
+        if (global != null && !variable.getMutable()) {
+            visit(ast.getValue());
+            emit(Bytecode.FAIL, index("Trying to change unmutable variable!"));
+        } else if (receiver.getOffset().isPresent()) {
+            int value = visit(ast.getValue());
+            int list = load(variable);
+            emit(Bytecode.STORE_ELEMENT, list, visit(receiver.getOffset().get()), value);
+        } else if (global != null) {
+            emit(Bytecode.STORE_GLOBAL, global, visit(ast.getValue()));
+        } else {
+            visitInto(ast.getValue(), variable.getSlot());
+        }
+        return null;
+    }
+
+    @Override
+    public Integer visit(Ast.Statement.If ast) {
+        int otherwise = jump(Bytecode.JUMP_IF_FALSE, visit(ast.getCondition()));
+        block(ast.getThenStatements());
+        if (ast.getElseStatements().isEmpty()) {
+            patch(otherwise);
+        } else {
+            int end = jump(Bytecode.JUMP);
+            patch(otherwise);
+            block(ast.getElseStatements());
+            patch(end);
+        }
+        return null;
+    }
+
+    /**
+     * Like the interpreter, runs every case whose value matches and the
+     * default case only if none did. The condition is copied to a temporary
+     * so cases cannot change it by assigning the variable it was read from.
+     */
+    @Override
+    public Integer visit(Ast.Statement.Switch ast) {
+        int condition = temporary();
+        visitInto(ast.getCondition(), condition);
+        int found = temporary();
+        emit(Bytecode.LOAD_CONST, found, index(false));
+
+        List<Ast.Statement.Case> cases = ast.getCases();
+        for (Ast.Statement.Case _case : cases.subList(0, cases.size() - 1)) {
+            int base = next;
+            int matches = temporary();
+            emit(Bytecode.EQUAL, matches, condition, visit(_case.getValue().get()));
+            int skip = jump(Bytecode.JUMP_IF_FALSE, matches);
+            next = base;
+            emit(Bytecode.LOAD_CONST, found, index(true));
+            visit(_case);
+            patch(skip);
+        }
+        int end = jump(Bytecode.JUMP_IF_TRUE, found);
+        visit(cases.get(cases.size() - 1));
+        patch(end);
+        return null;
+    }
+
+    @Override
+    public Integer visit(Ast.Statement.Case ast) {
+        block(ast.getStatements());
+        return null;
+    }
+
+    @Override
+    public Integer visit(Ast.Statement.While ast) {
+        int start = length;
+        int end = jump(Bytecode.JUMP_IF_FALSE, visit(ast.getCondition()));
+        block(ast.getStatements());
+        emit(Bytecode.JUMP, start);
+        patch(end);
+        return null;
+    }
+
+    @Override
+    public Integer visit(Ast.Statement.Return ast) {
+        emit(Bytecode.RETURN, visit(ast.getValue()));
+        return null;
+    }
+
+    @Override
+    public Integer visit(Ast.Expression.Literal ast) {
+        return constant(ast.getLiteral() == null ? NIL : ast.getLiteral());
+    }
+
+    @Override
+    public Integer visit(Ast.Expression.Group ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public Integer visit(Ast.Expression.Binary ast) {
+        String operator = ast.getOperator();
+        if (operator.equals("&&") || operator.equals("||")) {
+            int result = temporary();
+            visitInto(ast.getLeft(), result);
+            int end = jump(operator.equals("&&") ? Bytecode.JUMP_IF_FALSE : Bytecode.JUMP_IF_TRUE, result);
+            visitInto(ast.getRight(), result);
+            patch(end);
+            retarget = -1;
+            return result;
+        }
+
+        int left = visit(ast.getLeft());
+        int right = visit(ast.getRight());
+        int result = temporary();
+        emit(opcode(operator, ast.getType()), result, left, right);
+        retarget = length - 4;
+        return result;
+    }
+
+    private static int opcode(String operator, Environment.Type type) {
+        switch (operator) {
+            case "<":
+                return Bytecode.LESS;
+            case ">":
+                return Bytecode.GREATER;
+            case "==":
+                return Bytecode.EQUAL;
+            case "!=":
+                return Bytecode.NOT_EQUAL;
+            case "^":
+                return Bytecode.POWER;
+            case "+":
+                if (type == Environment.Type.STRING) return Bytecode.CONCATENATE;
+                if (type == Environment.Type.INTEGER) return Bytecode.ADD_INT;
+                if (type == Environment.Type.DECIMAL) return Bytecode.ADD_DECIMAL;
+                break;
+            case "-":
+                if (type == Environment.Type.INTEGER) return Bytecode.SUBTRACT_INT;
+                if (type == Environment.Type.DECIMAL) return Bytecode.SUBTRACT_DECIMAL;
+                break;
+            case "*":
+                if (type == Environment.Type.INTEGER) return Bytecode.MULTIPLY_INT;
+                if (type == Environment.Type.DECIMAL) return Bytecode.MULTIPLY_DECIMAL;
+                break;
+            case "/":
+                if (type == Environment.Type.INTEGER) return Bytecode.DIVIDE_INT;
+                if (type == Environment.Type.DECIMAL) return Bytecode.DIVIDE_DECIMAL;
+                break;
+        }
+        throw new RuntimeException("Invalid operator!");
+    }
+
+    @Override
+    public Integer visit(Ast.Expression.Access ast) {
+        int value = load(ast.getVariable());
+        if (!ast.getOffset().isPresent()) {
+            return value;
+        }
+        int offset = visit(ast.getOffset().get());
+        int result = temporary();
+        emit(Bytecode.LOAD_ELEMENT, result, value, offset);
+        retarget = length - 4;
+        return result;
+    }
+
+    @Override
+    public Integer visit(Ast.Expression.Function ast) {
+        List<Ast.Expression> arguments = ast.getArguments();
+        int base = next;
+        for (int i = 0; i < arguments.size(); i++) {
+            temporary();
+        }
+        for (int i = 0; i < arguments.size(); i++) {
+            visitInto(arguments.get(i), base + i);
+        }
+
+        int result = temporary();
+        Integer function = functionIndices.get(ast.getFunction());
+        if (function != null) {
+            emit(Bytecode.CALL, result, function, base, arguments.size());
+            retarget = length - 5;
+        } else if (ast.getName().equals("print") && arguments.size() == 1) {
+            emit(Bytecode.PRINT, result, base);
+            retarget = length - 3;
+        } else {
+            throw new RuntimeException("The function " + ast.getName() + "/" + arguments.size() + " is not defined in this scope.");
+        }
+        return result;
+    }
+
+    @Override
+    public Integer visit(Ast.Expression.PlcList ast) {
+        List<Ast.Expression> values = ast.getValues();
+        int base = next;
+        for (int i = 0; i < values.size(); i++) {
+            temporary();
+        }
+        for (int i = 0; i < values.size(); i++) {
+            visitInto(values.get(i), base + i);
+        }
+        int result = temporary();
+        emit(Bytecode.LIST, result, base, values.size());
+        retarget = length - 4;
+        return result;
+    }
+
+    /**
+     * Emits the code for an expression so its value ends up in the given
+     * register, writing it there directly when the last instruction computed
+     * it into a temporary.
+     */
+    private void visitInto(Ast.Expression expression, int register) {
+        int value = visit(expression);
+        if (value == register) return;
+        if (retarget >= 0 && code[retarget + 1] == value && value >= locals) {
+            code[retarget + 1] = register;
+        } else {
+            emit(Bytecode.MOVE, register, value);
+        }
+        retarget = -1;
+    }
+
+    private int load(Environment.Variable variable) {
+        Integer global = globals.get(variable);
+        if (global == null) return variable.getSlot();
+        int result = temporary();
+        emit(Bytecode.LOAD_GLOBAL, result, global);
+        retarget = length - 3;
+        return result;
+    }
+
+    private int constant(Object value) {
+        int result = temporary();
+        emit(Bytecode.LOAD_CONST, result, index(value));
+        retarget = length - 3;
+        return result;
+    }
+
+    private int index(Object value) {
+        return constantIndices.computeIfAbsent(value, v -> {
+            constants.add(v);
+            return constants.size() - 1;
+        });
+    }
+
+    /**
+     * Compiles statements, releasing the temporaries of each when it ends.
+     */
+    private void block(List<Ast.Statement> statements) {
+        int base = next;
+        for (Ast.Statement statement : statements) {
+            next = base;
+            visit(statement);
+        }
+        next = base;
+    }
+
+    private int temporary() {
+        registers = Math.max(registers, next + 1);
+        return next++;
+    }
+
+    private void begin(int locals) {
+        this.locals = locals;
+        next = locals;
+        registers = locals;
+        length = 0;
+    }
+
+    /**
+     * Finishes the current function, which returns {@code NIL} if it does not
+     * return anything else first.
+     */
+    private Bytecode.Function end(String name, int arity) {
+        next = locals;
+        emit(Bytecode.RETURN, constant(NIL));
+        return new Bytecode.Function(name, arity, registers, Arrays.copyOf(code, length));
+    }
+
+    private void emit(int... instruction) {
+        if (length + instruction.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, length + instruction.length));
+        }
+        System.arraycopy(instruction, 0, code, length, instruction.length);
+        length += instruction.length;
+        retarget = -1;
+    }
+
+    /**
+     * Emits a jump with its target left to {@link #patch(int)} and returns the
+     * position of that target.
+     */
+    private int jump(int opcode, int... operands) {
+        int[] instruction = new int[operands.length + 2];
+        instruction[0] = opcode;
+        System.arraycopy(operands, 0, instruction, 1, operands.length);
+        emit(instruction);
+        return length - 1;
+    }
+
+    private void patch(int target) {
+        code[target] = length;
+    }
+
+}
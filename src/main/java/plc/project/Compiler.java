@@ -0,0 +1,870 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compiles an analyzed AST once into a tree of executable nodes, which can
+ * then be run any number of times. Everything the {@link Interpreter} decides
+ * on each evaluation is decided here instead: operators and operand types
+ * select a specialized node (such as {@link IntAddNode}), variables become
+ * frame slots or global indices and calls are bound to the compiled function.
+ * Running a program therefore involves no visitor dispatch, string switches or
+ * scope lookups.
+ *
+ * Values are the plain objects held by {@link Environment.PlcObject}s, with
+ * {@code Environment.NIL.getValue()} for {@code NIL}. A statement node returns
+ * {@code null} when it completes normally and the returned value when it
+ * executes a {@code RETURN}, so returns need no exceptions.
+ */
+public final class Compiler implements Ast.Visitor<Compiler.Node> {
+
+    private static final Object NIL = Environment.NIL.getValue();
+
+    private final Map<Environment.Variable, Integer> globals = new IdentityHashMap<>();
+    private final Map<Environment.Function, FunctionNode> functions = new IdentityHashMap<>();
+    private Object[] values;
+
+    @Override
+    public Program visit(Ast.Source ast) {
+        values = new Object[ast.getGlobals().size()];
+        for (Ast.Function function : ast.getFunctions()) {
+            functions.put(function.getFunction(), new FunctionNode(function.getFrameSize()));
+        }
+
+        Node[] initializers = new Node[ast.getGlobals().size()];
+        for (int i = 0; i < initializers.length; i++) {
+            initializers[i] = visit(ast.getGlobals().get(i));
+        }
+        FunctionNode main = null;
+        for (Ast.Function function : ast.getFunctions()) {
+            FunctionNode node = (FunctionNode) visit(function);
+            if (function.getName().equals("main") && function.getParameters().isEmpty()) main = node;
+        }
+        if (main == null) throw new RuntimeException("The function main/0 is not defined in this scope.");
+        return new Program(values, initializers, main);
+    }
+
+    @Override
+    public Node visit(Ast.Global ast) {
+        int index = globals.size();
+        globals.put(ast.getVariable(), index);
+        return new StoreGlobalNode(values, index, ast.getValue().isPresent() ? visit(ast.getValue().get()) : new ConstantNode(NIL));
+    }
+
+    @Override
+    public Node visit(Ast.Function ast) {
+        if (ast.getFrameSize() < 0) throw new RuntimeException("The function " + ast.getName() + " has not been analyzed.");
+        FunctionNode function = functions.get(ast.getFunction());
+        function.body = block(ast.getStatements());
+        return function;
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Expression ast) {
+        return new DiscardNode(visit(ast.getExpression()));
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Declaration ast) {
+        Node value = ast.getValue().isPresent() ? visit(ast.getValue().get()) : new ConstantNode(NIL);
+        return new StoreLocalNode(ast.getVariable().getSlot(), value);
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Assignment ast) {
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        Node value = visit(ast.getValue());
+        Environment.Variable variable = receiver.getVariable();
+        if (globals.containsKey(variable) && !variable.getMutable()) {
+            return new FailNode(value, "Trying to change unmutable variable!");
+        }
+
+        Node target = load(variable);
+        if (receiver.getOffset().isPresent()) {
+            return new StoreElementNode(target, visit(receiver.getOffset().get()), value);
+        }
+        if (globals.containsKey(variable)) {
+            return new StoreGlobalNode(values, globals.get(variable), value);
+        }
+        return new StoreLocalNode(variable.getSlot(), value);
+    }
+
+    @Override
+    public Node visit(Ast.Statement.If ast) {
+        return new IfNode(visit(ast.getCondition()), block(ast.getThenStatements()), block(ast.getElseStatements()));
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Switch ast) {
+        List<Node> values = new ArrayList<>();
+        List<Node[]> cases = new ArrayList<>();
+        Node[] fallback = new Node[0];
+        for (Ast.Statement.Case _case : ast.getCases()) {
+            if (_case.getValue().isPresent()) {
+                values.add(visit(_case.getValue().get()));
+                cases.add(block(_case.getStatements()));
+            } else {
+                fallback = block(_case.getStatements());
+            }
+        }
+        return new SwitchNode(visit(ast.getCondition()), values.toArray(new Node[0]), cases.toArray(new Node[0][]), fallback);
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Case ast) {
+        return new BlockNode(block(ast.getStatements()));
+    }
+
+    @Override
+    public Node visit(Ast.Statement.While ast) {
+        return new WhileNode(visit(ast.getCondition()), block(ast.getStatements()));
+    }
+
+    @Override
+    public Node visit(Ast.Statement.Return ast) {
+        return new ReturnNode(visit(ast.getValue()));
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Literal ast) {
+        return new ConstantNode(ast.getLiteral() == null ? NIL : ast.getLiteral());
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Group ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Binary ast) {
+        Node left = visit(ast.getLeft());
+        Node right = visit(ast.getRight());
+        Environment.Type type = ast.getType();
+        switch (ast.getOperator()) {
+            case "&&":
+                return new AndNode(left, right);
+            case "||":
+                return new OrNode(left, right);
+            case "<":
+                return new LessThanNode(left, right);
+            case ">":
+                return new GreaterThanNode(left, right);
+            case "==":
+                return new EqualsNode(left, right);
+            case "!=":
+                return new NotEqualsNode(left, right);
+            case "+":
+                if (type == Environment.Type.STRING) return new ConcatenateNode(left, right);
+                if (type == Environment.Type.INTEGER) return new IntAddNode(left, right);
+                if (type == Environment.Type.DECIMAL) return new DecimalAddNode(left, right);
+                break;
+            case "-":
+                if (type == Environment.Type.INTEGER) return new IntSubtractNode(left, right);
+                if (type == Environment.Type.DECIMAL) return new DecimalSubtractNode(left, right);
+                break;
+            case "*":
+                if (type == Environment.Type.INTEGER) return new IntMultiplyNode(left, right);
+                if (type == Environment.Type.DECIMAL) return new DecimalMultiplyNode(left, right);
+                break;
+            case "/":
+                if (type == Environment.Type.INTEGER) return new IntDivideNode(left, right);
+                if (type == Environment.Type.DECIMAL) return new DecimalDivideNode(left, right);
+                break;
+            case "^":
+                return new PowerNode(left, right);
+        }
+        throw new RuntimeException("Invalid operator!");
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Access ast) {
+        Node value = load(ast.getVariable());
+        if (ast.getOffset().isPresent()) {
+            return new ElementNode(value, visit(ast.getOffset().get()));
+        }
+        return value;
+    }
+
+    @Override
+    public Node visit(Ast.Expression.Function ast) {
+        Node[] arguments = new Node[ast.getArguments().size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = visit(ast.getArguments().get(i));
+        }
+
+        FunctionNode function = functions.get(ast.getFunction());
+        if (function != null) {
+            return new CallNode(function, arguments);
+        }
+        if (ast.getName().equals("print") && arguments.length == 1) {
+            return new PrintNode(arguments[0]);
+        }
+        throw new RuntimeException("The function " + ast.getName() + "/" + arguments.length + " is not defined in this scope.");
+    }
+
+    @Override
+    public Node visit(Ast.Expression.PlcList ast) {
+        Node[] values = new Node[ast.getValues().size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = visit(ast.getValues().get(i));
+        }
+        return new ListNode(values);
+    }
+
+    private Node load(Environment.Variable variable) {
+        Integer index = globals.get(variable);
+        return (index != null) ? new GlobalNode(values, index) : new LocalNode(variable.getSlot());
+    }
+
+    private Node[] block(List<Ast.Statement> statements) {
+        Node[] nodes = new Node[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = visit(statements.get(i));
+        }
+        return nodes;
+    }
+
+    /**
+     * Executes statements in order, stopping at the first that returns.
+     */
+    private static Object execute(Node[] statements, Object[] frame) {
+        for (Node statement : statements) {
+            Object result = statement.execute(frame);
+            if (result != null) return result;
+        }
+        return null;
+    }
+
+    /**
+     * A compiled source. Each run starts from freshly initialized globals.
+     */
+    public static final class Program extends Node {
+
+        private final Object[] values;
+        private final Node[] initializers;
+        private final FunctionNode main;
+
+        private Program(Object[] values, Node[] initializers, FunctionNode main) {
+            this.values = values;
+            this.initializers = initializers;
+            this.main = main;
+        }
+
+        /**
+         * Initializes the globals and returns the result of calling main.
+         */
+        public Object run() {
+            Compiler.execute(initializers, null);
+            return main.call(new Object[0]);
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            return run();
+        }
+
+    }
+
+    /**
+     * An executable node. Expressions return their value and statements return
+     * {@code null}, or the value of a {@code RETURN} they executed.
+     */
+    public abstract static class Node {
+
+        public abstract Object execute(Object[] frame);
+
+    }
+
+    private static final class FunctionNode extends Node {
+
+        private final int frameSize;
+        private Node[] body;
+
+        private FunctionNode(int frameSize) {
+            this.frameSize = frameSize;
+        }
+
+        private Object call(Object[] arguments) {
+            Object[] frame = new Object[frameSize];
+            System.arraycopy(arguments, 0, frame, 0, arguments.length);
+            return execute(frame);
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            Object result = Compiler.execute(body, frame);
+            return (result != null) ? result : NIL;
+        }
+
+    }
+
+    private static final class CallNode extends Node {
+
+        private final FunctionNode function;
+        private final Node[] arguments;
+
+        private CallNode(FunctionNode function, Node[] arguments) {
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            Object[] callee = new Object[function.frameSize];
+            for (int i = 0; i < arguments.length; i++) {
+                callee[i] = arguments[i].execute(frame);
+            }
+            return function.execute(callee);
+        }
+
+    }
+
+    private static final class PrintNode extends Node {
+
+        private final Node value;
+
+        private PrintNode(Node value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            System.out.println(value.execute(frame));
+            return NIL;
+        }
+
+    }
+
+    private static final class BlockNode extends Node {
+
+        private final Node[] statements;
+
+        private BlockNode(Node[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            return Compiler.execute(statements, frame);
+        }
+
+    }
+
+    private static final class DiscardNode extends Node {
+
+        private final Node expression;
+
+        private DiscardNode(Node expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            expression.execute(frame);
+            return null;
+        }
+
+    }
+
+    private static final class StoreLocalNode extends Node {
+
+        private final int slot;
+        private final Node value;
+
+        private StoreLocalNode(int slot, Node value) {
+            this.slot = slot;
+            this.value = value;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            frame[slot] = value.execute(frame);
+            return null;
+        }
+
+    }
+
+    private static final class StoreGlobalNode extends Node {
+
+        private final Object[] values;
+        private final int index;
+        private final Node value;
+
+        private StoreGlobalNode(Object[] values, int index, Node value) {
+            this.values = values;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            values[index] = value.execute(frame);
+            return null;
+        }
+
+    }
+
+    private static final class StoreElementNode extends Node {
+
+        private final Node list;
+        private final Node index;
+        private final Node value;
+
+        private StoreElementNode(Node list, Node index, Node value) {
+            this.list = list;
+            this.index = index;
+            this.value = value;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object execute(Object[] frame) {
+            Object result = value.execute(frame);
+            int offset = ((BigInteger) index.execute(frame)).intValueExact();
+            ((List<Object>) list.execute(frame)).set(offset, result);
+            return null;
+        }
+
+    }
+
+    private static final class FailNode extends Node {
+
+        private final Node value;
+        private final String message;
+
+        private FailNode(Node value, String message) {
+            this.value = value;
+            this.message = message;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            value.execute(frame);
+            throw new RuntimeException(message);
+        }
+
+    }
+
+    private static final class IfNode extends Node {
+
+        private final Node condition;
+        private final Node[] thenStatements;
+        private final Node[] elseStatements;
+
+        private IfNode(Node condition, Node[] thenStatements, Node[] elseStatements) {
+            this.condition = condition;
+            this.thenStatements = thenStatements;
+            this.elseStatements = elseStatements;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            return Compiler.execute((Boolean) condition.execute(frame) ? thenStatements : elseStatements, frame);
+        }
+
+    }
+
+    /**
+     * Like the interpreter, runs every case whose value matches and the
+     * default case only if none did.
+     */
+    private static final class SwitchNode extends Node {
+
+        private final Node condition;
+        private final Node[] values;
+        private final Node[][] cases;
+        private final Node[] fallback;
+
+        private SwitchNode(Node condition, Node[] values, Node[][] cases, Node[] fallback) {
+            this.condition = condition;
+            this.values = values;
+            this.cases = cases;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            Object value = condition.execute(frame);
+            boolean found = false;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i].execute(frame).equals(value)) {
+                    found = true;
+                    Object result = Compiler.execute(cases[i], frame);
+                    if (result != null) return result;
+                }
+            }
+            return found ? null : Compiler.execute(fallback, frame);
+        }
+
+    }
+
+    private static final class WhileNode extends Node {
+
+        private final Node condition;
+        private final Node[] statements;
+
+        private WhileNode(Node condition, Node[] statements) {
+            this.condition = condition;
+            this.statements = statements;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            while ((Boolean) condition.execute(frame)) {
+                Object result = Compiler.execute(statements, frame);
+                if (result != null) return result;
+            }
+            return null;
+        }
+
+    }
+
+    private static final class ReturnNode extends Node {
+
+        private final Node value;
+
+        private ReturnNode(Node value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            return value.execute(frame);
+        }
+
+    }
+
+    private static final class ConstantNode extends Node {
+
+        private final Object value;
+
+        private ConstantNode(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            return value;
+        }
+
+    }
+
+    private static final class LocalNode extends Node {
+
+        private final int slot;
+
+        private LocalNode(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            return frame[slot];
+        }
+
+    }
+
+    private static final class GlobalNode extends Node {
+
+        private final Object[] values;
+        private final int index;
+
+        private GlobalNode(Object[] values, int index) {
+            this.values = values;
+            this.index = index;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            return values[index];
+        }
+
+    }
+
+    private static final class ElementNode extends Node {
+
+        private final Node list;
+        private final Node index;
+
+        private ElementNode(Node list, Node index) {
+            this.list = list;
+            this.index = index;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            List<?> values = (List<?>) list.execute(frame);
+            int offset = ((BigInteger) index.execute(frame)).intValueExact();
+            if (offset >= values.size()) throw new RuntimeException("Index out of range!");
+            return values.get(offset);
+        }
+
+    }
+
+    private static final class ListNode extends Node {
+
+        private final Node[] values;
+
+        private ListNode(Node[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            List<Object> list = new ArrayList<>(values.length);
+            for (Node value : values) {
+                list.add(value.execute(frame));
+            }
+            return list;
+        }
+
+    }
+
+    /**
+     * A binary operator, evaluating both operands before applying it.
+     */
+    private abstract static class BinaryNode extends Node {
+
+        private final Node left;
+        private final Node right;
+
+        private BinaryNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public final Object execute(Object[] frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+
+        abstract Object apply(Object left, Object right);
+
+    }
+
+    private static final class AndNode extends Node {
+
+        private final Node left;
+        private final Node right;
+
+        private AndNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            return (Boolean) left.execute(frame) && (Boolean) right.execute(frame);
+        }
+
+    }
+
+    private static final class OrNode extends Node {
+
+        private final Node left;
+        private final Node right;
+
+        private OrNode(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Object execute(Object[] frame) {
+            return (Boolean) left.execute(frame) || (Boolean) right.execute(frame);
+        }
+
+    }
+
+    private static final class LessThanNode extends BinaryNode {
+
+        private LessThanNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object apply(Object left, Object right) {
+            return ((Comparable<Object>) left).compareTo(right) < 0;
+        }
+
+    }
+
+    private static final class GreaterThanNode extends BinaryNode {
+
+        private GreaterThanNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object apply(Object left, Object right) {
+            return ((Comparable<Object>) left).compareTo(right) > 0;
+        }
+
+    }
+
+    private static final class EqualsNode extends BinaryNode {
+
+        private EqualsNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return Objects.equals(left, right);
+        }
+
+    }
+
+    private static final class NotEqualsNode extends BinaryNode {
+
+        private NotEqualsNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return !Objects.equals(left, right);
+        }
+
+    }
+
+    private static final class ConcatenateNode extends BinaryNode {
+
+        private ConcatenateNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return left.toString() + right.toString();
+        }
+
+    }
+
+    private static final class IntAddNode extends BinaryNode {
+
+        private IntAddNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return ((BigInteger) left).add((BigInteger) right);
+        }
+
+    }
+
+    private static final class IntSubtractNode extends BinaryNode {
+
+        private IntSubtractNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return ((BigInteger) left).subtract((BigInteger) right);
+        }
+
+    }
+
+    private static final class IntMultiplyNode extends BinaryNode {
+
+        private IntMultiplyNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return ((BigInteger) left).multiply((BigInteger) right);
+        }
+
+    }
+
+    private static final class IntDivideNode extends BinaryNode {
+
+        private IntDivideNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return ((BigInteger) left).divide((BigInteger) right);
+        }
+
+    }
+
+    private static final class PowerNode extends BinaryNode {
+
+        private PowerNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return Interpreter.power((BigInteger) left, (BigInteger) right);
+        }
+
+    }
+
+    private static final class DecimalAddNode extends BinaryNode {
+
+        private DecimalAddNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return ((BigDecimal) left).add((BigDecimal) right);
+        }
+
+    }
+
+    private static final class DecimalSubtractNode extends BinaryNode {
+
+        private DecimalSubtractNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return ((BigDecimal) left).subtract((BigDecimal) right);
+        }
+
+    }
+
+    private static final class DecimalMultiplyNode extends BinaryNode {
+
+        private DecimalMultiplyNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return ((BigDecimal) left).multiply((BigDecimal) right);
+        }
+
+    }
+
+    private static final class DecimalDivideNode extends BinaryNode {
+
+        private DecimalDivideNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        Object apply(Object left, Object right) {
+            return ((BigDecimal) left).divide((BigDecimal) right, RoundingMode.HALF_EVEN);
+        }
+
+    }
+
+}
@@ -5,11 +5,65 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 public final class Environment {
 
+    /**
+     * The type and scope shared by values created at runtime, which have no
+     * members of their own.
+     */
+    private static final Scope VALUE_SCOPE = new Scope(null);
+    private static final Type VALUE_TYPE = new Type("Unknown", "Unknown", VALUE_SCOPE);
+
+    private static final PlcObject TRUE = new PlcObject(VALUE_TYPE, VALUE_SCOPE, true);
+    private static final PlcObject FALSE = new PlcObject(VALUE_TYPE, VALUE_SCOPE, false);
+    private static final PlcObject EMPTY = new PlcObject(VALUE_TYPE, VALUE_SCOPE, "");
+
+    /**
+     * The Integers that are always shared rather than created again, which
+     * covers loop counters, indices and most intermediate results.
+     */
+    private static final int MIN_CACHED = -128;
+    private static final int MAX_CACHED = 1023;
+    private static final PlcObject[] INTEGERS = new PlcObject[MAX_CACHED - MIN_CACHED + 1];
+
+    static {
+        for (int i = 0; i < INTEGERS.length; i++) {
+            INTEGERS[i] = new PlcObject(VALUE_TYPE, VALUE_SCOPE, (long) (i + MIN_CACHED));
+        }
+    }
+
+    /**
+     * Returns a runtime value. Booleans, the empty string and small Integers
+     * are shared instances; other values share their type and scope, so
+     * creating one allocates only the object itself.
+     */
     public static PlcObject create(Object value) {
-        return new PlcObject(new Scope(null), value);
+        if (value instanceof Boolean) {
+            return (Boolean) value ? TRUE : FALSE;
+        }
+        if (value instanceof java.math.BigInteger && ((java.math.BigInteger) value).bitLength() < 64) {
+            long integer = ((java.math.BigInteger) value).longValue();
+            if (integer >= MIN_CACHED && integer <= MAX_CACHED) {
+                return INTEGERS[(int) integer - MIN_CACHED];
+            }
+        }
+        if ("".equals(value)) {
+            return EMPTY;
+        }
+        return new PlcObject(VALUE_TYPE, VALUE_SCOPE, value);
+    }
+
+    /**
+     * Creates an Integer held as a {@code long}, which only becomes a
+     * {@link java.math.BigInteger} once {@link PlcObject#getValue()} is called.
+     */
+    public static PlcObject createInteger(long value) {
+        if (value >= MIN_CACHED && value <= MAX_CACHED) {
+            return INTEGERS[(int) value - MIN_CACHED];
+        }
+        return new PlcObject(VALUE_TYPE, VALUE_SCOPE, value);
     }
 
     public static final PlcObject NIL = new PlcObject(Type.NIL, new Scope(null), new Object() {
@@ -30,6 +84,14 @@ public final class Environment {
         return TYPES.get(name);
     }
 
+    /**
+     * Looks up a type like {@link #getType(String)}, but returns an empty
+     * optional instead of throwing when it is not registered.
+     */
+    public static Optional<Type> findType(String name) {
+        return Optional.ofNullable(TYPES.get(name));
+    }
+
     public static void registerType(Type type) {
         if (TYPES.containsKey(type.getName())) {
             throw new IllegalArgumentException("Duplicate registration of type " + type.getName() + ".");
@@ -48,6 +110,14 @@ public final class Environment {
         public static final Type CHARACTER = new Type("Character", "char", new Scope(COMPARABLE.scope));
         public static final Type STRING = new Type("String", "String", new Scope(COMPARABLE.scope));
 
+        /**
+         * The type of expressions the {@link Analyzer} has already reported an
+         * error for. It is assignable to and from every type so one mistake is
+         * not reported again by each enclosing expression, and it is never
+         * registered, so sources cannot refer to it by name.
+         */
+        public static final Type ERROR = new Type("Error", "Object", new Scope(ANY.scope));
+
         private final String name;
         private final String jvmName;
         private final Scope scope;
@@ -93,7 +163,9 @@ public final class Environment {
 
         private final Type type;
         private final Scope scope;
-        private final Object value;
+        private Object value;
+        private final boolean small;
+        private final long integer;
 
         public PlcObject(Scope scope, Object value) {
             this(new Type("Unknown", "Unknown", scope), scope, value);
@@ -103,6 +175,15 @@ public final class Environment {
             this.type = type;
             this.scope = scope;
             this.value = value;
+            this.small = false;
+            this.integer = 0;
+        }
+
+        private PlcObject(Type type, Scope scope, long integer) {
+            this.type = type;
+            this.scope = scope;
+            this.small = true;
+            this.integer = integer;
         }
 
         public Type getType() {
@@ -110,15 +191,30 @@ public final class Environment {
         }
 
         public Object getValue() {
+            if (small && value == null) {
+                value = java.math.BigInteger.valueOf(integer);
+            }
             return value;
         }
 
+        /**
+         * Whether the value is an Integer held as a {@code long}, available
+         * from {@link #getLong()} without creating a BigInteger.
+         */
+        public boolean getSmall() {
+            return small;
+        }
+
+        public long getLong() {
+            return integer;
+        }
+
         @Override
         public String toString() {
             return "Object{" +
                     "type=" + type +
                     ", scope=" + scope +
-                    ", value=" + value +
+                    ", value=" + getValue() +
                     '}';
         }
 
@@ -131,6 +227,7 @@ public final class Environment {
         private final boolean mutable;
         private final Type type;
         private PlcObject value;
+        private int slot = -1;
 
         public Variable(String name, boolean mutable, PlcObject value) {
             this(name, name, Type.ANY, mutable, value);
@@ -168,6 +265,19 @@ public final class Environment {
             this.value = value;
         }
 
+        /**
+         * The index of a parameter or local variable in the frame of its
+         * function, or {@code -1} for globals and variables that were not
+         * defined by the analyzer.
+         */
+        public int getSlot() {
+            return slot;
+        }
+
+        public void setSlot(int slot) {
+            this.slot = slot;
+        }
+
         @Override
         public boolean equals(Object obj) {
             return obj instanceof Variable &&
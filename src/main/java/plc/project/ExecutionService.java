@@ -0,0 +1,194 @@
+package plc.project;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs many scripts concurrently, each on a thread of its own: a virtual
+ * thread when the JVM has them, and otherwise a pooled daemon thread.
+ *
+ * <p>At most {@code capacity} scripts are queued or running at once, and
+ * submitting another blocks until one finishes. Scripts are parsed and
+ * analyzed once into an {@link Interpreter.Program}, and the most recently
+ * used programs are kept for scripts submitted again. What a script prints
+ * is collected in its {@link Result} instead of written to standard
+ * output.</p>
+ *
+ * <p>A script still running when its timeout expires fails with a
+ * {@link TimeoutException}. It is cancelled through its
+ * {@link Interpreter.Budget}, so it stops soon after, as does a script
+ * exceeding the step limit.</p>
+ */
+public final class ExecutionService implements AutoCloseable {
+
+    private final ExecutorService executor = createExecutor();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "plc-timeouts");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Semaphore permits;
+    private final Map<String, Interpreter.Program> programs;
+    private final Map<Interpreter.Budget, CompletableFuture<Result>> running = new ConcurrentHashMap<>();
+    private volatile long stepLimit = Long.MAX_VALUE;
+
+    /**
+     * Creates a service running up to {@code capacity} scripts at once and
+     * keeping up to {@code programCapacity} loaded programs.
+     */
+    public ExecutionService(int capacity, int programCapacity) {
+        this.permits = new Semaphore(capacity);
+        this.programs = new LinkedHashMap<String, Interpreter.Program>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Interpreter.Program> eldest) {
+                return size() > programCapacity;
+            }
+        };
+    }
+
+    /**
+     * Sets the number of steps (see {@link Interpreter#setBudget}) each script
+     * submitted afterwards may take. Unlimited by default.
+     */
+    public void setStepLimit(long stepLimit) {
+        this.stepLimit = stepLimit;
+    }
+
+    /**
+     * Submits a script to run, waiting while the service is at capacity.
+     *
+     * <p>The permit is given back by whichever comes first: the script
+     * starting, which gives it back once it stops, or the result completing
+     * before then (timing out or being cancelled), after which the script
+     * never runs.</p>
+     */
+    public CompletableFuture<Result> submit(String source, Duration timeout) throws InterruptedException {
+        permits.acquire();
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        Interpreter.Budget budget = new Interpreter.Budget(stepLimit);
+        AtomicBoolean claimed = new AtomicBoolean();
+        running.put(budget, result);
+        result.whenComplete((value, error) -> {
+            running.remove(budget);
+            if (claimed.compareAndSet(false, true)) permits.release();
+        });
+        Future<?> task;
+        try {
+            task = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) return;
+                try {
+                    result.complete(execute(source, budget));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            throw e;
+        }
+        ScheduledFuture<?> expiry = timer.schedule(() -> {
+            if (result.completeExceptionally(new TimeoutException("Script timed out after " + timeout.toMillis() + " ms."))) {
+                budget.cancel();
+                task.cancel(true);
+            }
+        }, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        result.whenComplete((value, error) -> expiry.cancel(false));
+        return result;
+    }
+
+    /**
+     * Returns the loaded program of a script, parsing and analyzing it if it
+     * is not cached. Two threads may load the same script at once, in which
+     * case the first program stored is kept.
+     */
+    public Interpreter.Program load(String source) {
+        synchronized (programs) {
+            Interpreter.Program program = programs.get(source);
+            if (program != null) return program;
+        }
+        Ast.Source ast = new Parser(new Lexer(source).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Interpreter.Program program = new Interpreter.Program(ast);
+        synchronized (programs) {
+            Interpreter.Program existing = programs.putIfAbsent(source, program);
+            return (existing != null) ? existing : program;
+        }
+    }
+
+    /**
+     * Stops accepting scripts and cancels those still queued or running. Their
+     * results fail with a {@link java.util.concurrent.CancellationException},
+     * as their timeouts no longer expire.
+     */
+    @Override
+    public void close() {
+        for (Map.Entry<Interpreter.Budget, CompletableFuture<Result>> entry : new ArrayList<>(running.entrySet())) {
+            entry.getKey().cancel();
+            entry.getValue().cancel(false);
+        }
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    private Result execute(String source, Interpreter.Budget budget) {
+        StringBuilder output = new StringBuilder();
+        Object value = load(source).run(Interpreter.Sink.of(output), budget).getValue();
+        return new Result(value, output.toString());
+    }
+
+    /**
+     * Virtual threads are only available from Java 21, so they are created
+     * reflectively to keep compiling for older versions.
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "plc-script");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * The value main returned and what the script printed.
+     */
+    public static final class Result {
+
+        private final Object value;
+        private final String output;
+
+        private Result(Object value, String output) {
+            this.value = value;
+            this.output = output;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+    }
+
+}
@@ -271,7 +271,8 @@ public final class Generator implements Ast.Visitor<Void> {
     @Override
     public Void visit(Ast.Expression.Binary ast) {
         if (ast.getOperator().equals("^")) {
-            print("Math.pow(", ast.getLeft(), ", ", ast.getRight(), ")");
+            // Math.pow returns a double, while the operands and result are ints
+            print("(int) Math.pow(", ast.getLeft(), ", ", ast.getRight(), ")");
         } else
             print(ast.getLeft(), " ", ast.getOperator(), " ", ast.getRight());
         return null;
@@ -0,0 +1,484 @@
+package plc.project;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compiles an analyzed AST into trees of composed {@link MethodHandle}s, one
+ * per function, which the JVM can inline and compile like ordinary methods
+ * without generating any bytecode here.
+ *
+ * Every handle takes the frame of the current function, an {@code Object[]}
+ * indexed by the slots the {@link Analyzer} assigned. Expressions return their
+ * value, as the plain objects held by {@link Environment.PlcObject}s. As in
+ * the {@link Compiler}, statements that may return a value return it, or
+ * {@code null} when they complete normally, while statements that never
+ * return (declarations, assignments and expression statements) return
+ * {@code void}. Calls between functions of the source go through a
+ * {@link MutableCallSite} per function, which allows recursion.
+ *
+ * Visiting a source initializes its globals and defines each function in
+ * {@link #getScope()}, backed by its handle. Every call of main initializes
+ * the globals again first, so each run starts from the same values, as with
+ * {@link Compiler.Program#run()} and {@link VirtualMachine#run}. The globals
+ * are shared by all runs, so main must not be called by several threads at
+ * once.
+ */
+public final class HandleCompiler implements Ast.Visitor<MethodHandle> {
+
+    private static final Object NIL = Environment.NIL.getValue();
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodType STATEMENT = MethodType.methodType(Object.class, Object[].class);
+
+    private static final MethodHandle IS_NULL = find("isNull", boolean.class, Object.class);
+    private static final MethodHandle TRUTH = find("truth", boolean.class, Object.class);
+    private static final MethodHandle OR_NIL = find("orNil", Object.class, Object.class);
+    private static final MethodHandle PRINT = find("print", Object.class, Object.class);
+    private static final MethodHandle FAIL = find("fail", void.class, String.class, Object.class);
+    private static final MethodHandle LIST = find("list", Object.class, Object[].class);
+    private static final MethodHandle ELEMENT = find("element", Object.class, Object.class, Object.class);
+    private static final MethodHandle STORE_ELEMENT = find("storeElement", void.class, Object.class, Object.class, Object.class);
+    private static final MethodHandle SWITCH = find("select", Object.class, MethodHandle.class, MethodHandle[].class, MethodHandle[].class, MethodHandle.class, Object[].class);
+    private static final MethodHandle GET = MethodHandles.arrayElementGetter(Object[].class);
+    private static final MethodHandle SET = MethodHandles.arrayElementSetter(Object[].class);
+    private static final MethodHandle NEW_FRAME = MethodHandles.arrayConstructor(Object[].class);
+
+    private final Scope scope;
+    private final Map<Environment.Variable, Integer> globals = new IdentityHashMap<>();
+    private final Map<Environment.Function, MutableCallSite> functions = new IdentityHashMap<>();
+    private final Map<Environment.Function, Integer> frameSizes = new IdentityHashMap<>();
+    private Object[] values;
+
+    public HandleCompiler(Scope parent) {
+        this.scope = new Scope(parent);
+    }
+
+    public Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * Returns a handle taking no arguments which initializes the globals and
+     * calls main.
+     */
+    @Override
+    public MethodHandle visit(Ast.Source ast) {
+        values = new Object[ast.getGlobals().size()];
+        for (Ast.Function function : ast.getFunctions()) {
+            functions.put(function.getFunction(), new MutableCallSite(STATEMENT));
+            frameSizes.put(function.getFunction(), function.getFrameSize());
+        }
+        MethodHandle initializer = MethodHandles.empty(MethodType.methodType(void.class, Object[].class));
+        for (Ast.Global global : ast.getGlobals()) {
+            initializer = MethodHandles.foldArguments(visit(global), initializer);
+        }
+        invoke(initializer, new Object[0]);
+
+        MethodHandle main = null;
+        for (Ast.Function function : ast.getFunctions()) {
+            boolean entry = function.getName().equals("main") && function.getParameters().isEmpty();
+            // calls within the source go through the call site, so only the entry point initializes
+            MethodHandle handle = entry ? MethodHandles.foldArguments(visit(function), initializer) : visit(function);
+            int frameSize = function.getFrameSize();
+            scope.defineFunction(function.getName(), function.getParameters().size(), arguments -> {
+                Object[] frame = new Object[frameSize];
+                for (int i = 0; i < arguments.size(); i++) {
+                    frame[i] = arguments.get(i).getValue();
+                }
+                return Environment.create(invoke(handle, frame));
+            });
+            if (entry) {
+                main = MethodHandles.foldArguments(handle, MethodHandles.insertArguments(NEW_FRAME, 0, frameSize));
+            }
+        }
+        if (main == null) throw new RuntimeException("The function main/0 is not defined in this scope.");
+        return main;
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Global ast) {
+        int index = globals.size();
+        globals.put(ast.getVariable(), index);
+        MethodHandle value = ast.getValue().isPresent() ? visit(ast.getValue().get()) : constant(NIL);
+        return MethodHandles.filterArguments(MethodHandles.insertArguments(SET, 0, values, index), 0, value);
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Function ast) {
+        if (ast.getFrameSize() < 0) throw new RuntimeException("The function " + ast.getName() + " has not been analyzed.");
+        MutableCallSite site = functions.get(ast.getFunction());
+        site.setTarget(MethodHandles.filterReturnValue(block(ast.getStatements()), OR_NIL));
+        return site.dynamicInvoker();
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Statement.Expression ast) {
+        return visit(ast.getExpression()).asType(MethodType.methodType(void.class, Object[].class));
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Statement.Declaration ast) {
+        MethodHandle value = ast.getValue().isPresent() ? visit(ast.getValue().get()) : constant(NIL);
+        return storeLocal(ast.getVariable().getSlot(), value);
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Statement.Assignment ast) {
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        MethodHandle value = visit(ast.getValue());
+        Environment.Variable variable = receiver.getVariable();
+        if (globals.containsKey(variable) && !variable.getMutable()) {
+            return MethodHandles.filterArguments(MethodHandles.insertArguments(FAIL, 0, "Trying to change unmutable variable!"), 0, value);
+        }
+
+        if (receiver.getOffset().isPresent()) {
+            // evaluates the value, then the index, then the list
+            MethodHandle store = MethodHandles.filterArguments(STORE_ELEMENT, 2, load(variable));
+            store = MethodHandles.foldArguments(store, 1, visit(receiver.getOffset().get()));
+            return MethodHandles.foldArguments(store, 0, value);
+        }
+        if (globals.containsKey(variable)) {
+            MethodHandle store = MethodHandles.insertArguments(SET, 0, values, globals.get(variable));
+            return MethodHandles.filterArguments(store, 0, value);
+        }
+        return storeLocal(variable.getSlot(), value);
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Statement.If ast) {
+        return MethodHandles.guardWithTest(condition(ast.getCondition()), block(ast.getThenStatements()), block(ast.getElseStatements()));
+    }
+
+    /**
+     * Like the interpreter, runs every case whose value matches and the
+     * default case only if none did. The cases are selected by a helper
+     * rather than combinators, as this needs to track whether any matched.
+     */
+    @Override
+    public MethodHandle visit(Ast.Statement.Switch ast) {
+        List<MethodHandle> values = new ArrayList<>();
+        List<MethodHandle> cases = new ArrayList<>();
+        MethodHandle fallback = block(new ArrayList<>());
+        for (Ast.Statement.Case _case : ast.getCases()) {
+            if (_case.getValue().isPresent()) {
+                values.add(visit(_case.getValue().get()));
+                cases.add(block(_case.getStatements()));
+            } else {
+                fallback = block(_case.getStatements());
+            }
+        }
+        return MethodHandles.insertArguments(SWITCH, 0, visit(ast.getCondition()),
+                values.toArray(new MethodHandle[0]), cases.toArray(new MethodHandle[0]), fallback);
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Statement.Case ast) {
+        return block(ast.getStatements());
+    }
+
+    /**
+     * Loops with the value of the last iteration as the loop variable, which
+     * is {@code null} until the body returns, so a return ends the loop with
+     * the returned value.
+     */
+    @Override
+    public MethodHandle visit(Ast.Statement.While ast) {
+        MethodHandle init = constant(null);
+        MethodHandle predicate = MethodHandles.guardWithTest(
+                MethodHandles.dropArguments(IS_NULL, 1, Object[].class),
+                MethodHandles.dropArguments(condition(ast.getCondition()), 0, Object.class),
+                MethodHandles.dropArguments(MethodHandles.constant(boolean.class, false), 0, Object.class, Object[].class));
+        MethodHandle body = MethodHandles.dropArguments(block(ast.getStatements()), 0, Object.class);
+        return MethodHandles.whileLoop(init, predicate, body);
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Statement.Return ast) {
+        return visit(ast.getValue());
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Expression.Literal ast) {
+        return constant(ast.getLiteral() == null ? NIL : ast.getLiteral());
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Expression.Group ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Expression.Binary ast) {
+        Environment.Type type = ast.getType();
+        switch (ast.getOperator()) {
+            case "&&":
+                return MethodHandles.guardWithTest(condition(ast.getLeft()), visit(ast.getRight()), constant(false));
+            case "||":
+                return MethodHandles.guardWithTest(condition(ast.getLeft()), constant(true), visit(ast.getRight()));
+            case "<":
+                return binary(ast, "lessThan");
+            case ">":
+                return binary(ast, "greaterThan");
+            case "==":
+                return binary(ast, "equal");
+            case "!=":
+                return binary(ast, "notEqual");
+            case "+":
+                if (type == Environment.Type.STRING) return binary(ast, "concatenate");
+                if (type == Environment.Type.INTEGER) return binary(ast, "intAdd");
+                if (type == Environment.Type.DECIMAL) return binary(ast, "decimalAdd");
+                break;
+            case "-":
+                if (type == Environment.Type.INTEGER) return binary(ast, "intSubtract");
+                if (type == Environment.Type.DECIMAL) return binary(ast, "decimalSubtract");
+                break;
+            case "*":
+                if (type == Environment.Type.INTEGER) return binary(ast, "intMultiply");
+                if (type == Environment.Type.DECIMAL) return binary(ast, "decimalMultiply");
+                break;
+            case "/":
+                if (type == Environment.Type.INTEGER) return binary(ast, "intDivide");
+                if (type == Environment.Type.DECIMAL) return binary(ast, "decimalDivide");
+                break;
+            case "^":
+                return binary(ast, "power");
+        }
+        throw new RuntimeException("Invalid operator!");
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Expression.Access ast) {
+        MethodHandle value = load(ast.getVariable());
+        if (ast.getOffset().isPresent()) {
+            return fold(ELEMENT, value, visit(ast.getOffset().get()));
+        }
+        return value;
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Expression.Function ast) {
+        List<Ast.Expression> arguments = ast.getArguments();
+        MutableCallSite site = functions.get(ast.getFunction());
+        if (site != null) {
+            // (caller frame, callee frame) -> result, storing each argument
+            // into the callee frame from left to right before invoking it
+            MethodHandle call = MethodHandles.dropArguments(site.dynamicInvoker(), 0, Object[].class);
+            for (int i = arguments.size() - 1; i >= 0; i--) {
+                MethodHandle store = MethodHandles.filterArguments(MethodHandles.insertArguments(SET, 1, i), 1, visit(arguments.get(i)));
+                store = MethodHandles.permuteArguments(store, MethodType.methodType(void.class, Object[].class, Object[].class), 1, 0);
+                call = MethodHandles.foldArguments(call, store);
+            }
+            return MethodHandles.foldArguments(call, 1, MethodHandles.insertArguments(NEW_FRAME, 0, frameSizes.get(ast.getFunction())));
+        }
+        if (ast.getName().equals("print") && arguments.size() == 1) {
+            return MethodHandles.filterArguments(PRINT, 0, visit(arguments.get(0)));
+        }
+        throw new RuntimeException("The function " + ast.getName() + "/" + arguments.size() + " is not defined in this scope.");
+    }
+
+    @Override
+    public MethodHandle visit(Ast.Expression.PlcList ast) {
+        Object[] literals = new Object[ast.getValues().size()];
+        for (int i = 0; i < literals.length; i++) {
+            literals[i] = ((Ast.Expression.Literal) ast.getValues().get(i)).getLiteral();
+        }
+        return MethodHandles.dropArguments(MethodHandles.insertArguments(LIST, 0, (Object) literals), 0, Object[].class);
+    }
+
+    /**
+     * Returns a handle running the statements in order and stopping at the
+     * first that returns a value. Statements returning {@code void} are
+     * simply run before the rest; others are tested for a returned value.
+     */
+    private MethodHandle block(List<Ast.Statement> statements) {
+        MethodHandle rest = constant(null);
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            MethodHandle statement = visit(statements.get(i));
+            if (statement.type().returnType() == void.class) {
+                rest = MethodHandles.foldArguments(rest, statement);
+            } else {
+                MethodHandle next = MethodHandles.guardWithTest(
+                        MethodHandles.dropArguments(IS_NULL, 1, Object[].class),
+                        MethodHandles.dropArguments(rest, 0, Object.class),
+                        MethodHandles.dropArguments(MethodHandles.identity(Object.class), 1, Object[].class));
+                rest = MethodHandles.foldArguments(next, statement);
+            }
+        }
+        return rest;
+    }
+
+    /**
+     * Returns a handle evaluating a boolean expression as a test for
+     * {@link MethodHandles#guardWithTest}.
+     */
+    private MethodHandle condition(Ast.Expression expression) {
+        return MethodHandles.filterReturnValue(visit(expression), TRUTH);
+    }
+
+    private MethodHandle binary(Ast.Expression.Binary ast, String operator) {
+        return fold(find(operator, Object.class, Object.class, Object.class), visit(ast.getLeft()), visit(ast.getRight()));
+    }
+
+    /**
+     * Applies a two argument operator to the values of two expressions,
+     * evaluating the left one first.
+     */
+    private static MethodHandle fold(MethodHandle operator, MethodHandle left, MethodHandle right) {
+        return MethodHandles.foldArguments(MethodHandles.filterArguments(operator, 1, right), left);
+    }
+
+    private MethodHandle load(Environment.Variable variable) {
+        Integer index = globals.get(variable);
+        if (index != null) {
+            return MethodHandles.dropArguments(MethodHandles.insertArguments(GET, 0, values, index), 0, Object[].class);
+        }
+        return MethodHandles.insertArguments(GET, 1, variable.getSlot());
+    }
+
+    private static MethodHandle storeLocal(int slot, MethodHandle value) {
+        MethodHandle store = MethodHandles.filterArguments(MethodHandles.insertArguments(SET, 1, slot), 1, value);
+        return MethodHandles.permuteArguments(store, MethodType.methodType(void.class, Object[].class), 0, 0);
+    }
+
+    private static MethodHandle constant(Object value) {
+        return MethodHandles.dropArguments(MethodHandles.constant(Object.class, value), 0, Object[].class);
+    }
+
+    private static MethodHandle find(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return LOOKUP.findStatic(HandleCompiler.class, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Object invoke(MethodHandle handle, Object[] frame) {
+        try {
+            return (Object) handle.invoke(frame);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    private static boolean isNull(Object value) {
+        return value == null;
+    }
+
+    private static boolean truth(Object value) {
+        return (Boolean) value;
+    }
+
+    private static Object orNil(Object value) {
+        return (value != null) ? value : NIL;
+    }
+
+    private static Object print(Object value) {
+        System.out.println(value);
+        return NIL;
+    }
+
+    private static void fail(String message, Object value) {
+        throw new RuntimeException(message);
+    }
+
+    private static Object list(Object[] literals) {
+        return new ArrayList<>(Arrays.asList(literals));
+    }
+
+    private static Object element(Object list, Object index) {
+        List<?> values = (List<?>) list;
+        int offset = ((BigInteger) index).intValueExact();
+        if (offset >= values.size()) throw new RuntimeException("Index out of range!");
+        return values.get(offset);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void storeElement(Object value, Object index, Object list) {
+        ((List<Object>) list).set(((BigInteger) index).intValueExact(), value);
+    }
+
+    private static Object select(MethodHandle condition, MethodHandle[] values, MethodHandle[] cases, MethodHandle fallback, Object[] frame) throws Throwable {
+        Object value = (Object) condition.invokeExact(frame);
+        boolean found = false;
+        for (int i = 0; i < values.length; i++) {
+            if (((Object) values[i].invokeExact(frame)).equals(value)) {
+                found = true;
+                Object result = (Object) cases[i].invokeExact(frame);
+                if (result != null) return result;
+            }
+        }
+        return found ? null : (Object) fallback.invokeExact(frame);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object lessThan(Object left, Object right) {
+        return ((Comparable<Object>) left).compareTo(right) < 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object greaterThan(Object left, Object right) {
+        return ((Comparable<Object>) left).compareTo(right) > 0;
+    }
+
+    private static Object equal(Object left, Object right) {
+        return Objects.equals(left, right);
+    }
+
+    private static Object notEqual(Object left, Object right) {
+        return !Objects.equals(left, right);
+    }
+
+    private static Object concatenate(Object left, Object right) {
+        return left.toString() + right.toString();
+    }
+
+    private static Object intAdd(Object left, Object right) {
+        return ((BigInteger) left).add((BigInteger) right);
+    }
+
+    private static Object intSubtract(Object left, Object right) {
+        return ((BigInteger) left).subtract((BigInteger) right);
+    }
+
+    private static Object intMultiply(Object left, Object right) {
+        return ((BigInteger) left).multiply((BigInteger) right);
+    }
+
+    private static Object intDivide(Object left, Object right) {
+        return ((BigInteger) left).divide((BigInteger) right);
+    }
+
+    private static Object power(Object left, Object right) {
+        return Interpreter.power((BigInteger) left, (BigInteger) right);
+    }
+
+    private static Object decimalAdd(Object left, Object right) {
+        return ((BigDecimal) left).add((BigDecimal) right);
+    }
+
+    private static Object decimalSubtract(Object left, Object right) {
+        return ((BigDecimal) left).subtract((BigDecimal) right);
+    }
+
+    private static Object decimalMultiply(Object left, Object right) {
+        return ((BigDecimal) left).multiply((BigDecimal) right);
+    }
+
+    private static Object decimalDivide(Object left, Object right) {
+        return ((BigDecimal) left).divide((BigDecimal) right, RoundingMode.HALF_EVEN);
+    }
+
+}
@@ -1,6 +1,13 @@
 package plc.project;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -16,19 +23,95 @@ import java.util.Optional;
 public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     private Scope scope = new Scope(null);
+    private Environment.PlcObject[] frame = null;
+    private Environment.PlcObject returned = null;
+    private List<Environment.PlcObject> tailArguments = null;
+    private Scope globals = null;
+    private Sink sink = Sink.standard();
+    private Budget budget = null;
+    private long steps = 0;
+    private long nextCheck = Long.MAX_VALUE;
+    private int memoCapacity = 0;
+    private final Map<String, MemoCache> memoCaches = new HashMap<>();
+    private int jitThreshold = 0;
+    private final Map<String, Jit.Counter> jitCounters = new HashMap<>();
 
     public Interpreter(Scope parent) {
         scope = new Scope(parent);
         scope.defineFunction("print", 1, args -> {
-            System.out.println(args.get(0).getValue());
+            sink.print(String.valueOf(args.get(0).getValue()));
             return Environment.NIL;
         });
     }
 
+    /**
+     * Creates the interpreter of one run of a program, with a scope of its
+     * own for the globals under the functions shared by all runs.
+     */
+    private Interpreter(Program program) {
+        scope = new Scope(program.functions);
+        globals = scope;
+    }
+
     public Scope getScope() {
         return scope;
     }
 
+    /**
+     * Sets where {@code print} writes, standard output by default. The sink
+     * is flushed when main returns or fails.
+     */
+    public void setSink(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Enables memoization of functions the analyzer marked as pure, keeping
+     * up to {@code capacity} results per function. A capacity of zero (the
+     * default) disables it. Only affects functions defined afterwards.
+     */
+    public void setMemoization(int capacity) {
+        this.memoCapacity = capacity;
+    }
+
+    /**
+     * Returns the memo cache of a pure function, or {@code null} if calls to it
+     * are not memoized.
+     */
+    public MemoCache getMemoCache(String name, int arity) {
+        return memoCaches.get(name + "/" + arity);
+    }
+
+    /**
+     * Enables compiling analyzed functions to JVM bytecode with the {@link Jit}
+     * once they have been called {@code threshold} times. A threshold of zero
+     * (the default) disables it. Only affects functions defined afterwards.
+     */
+    public void setJitThreshold(int threshold) {
+        this.jitThreshold = threshold;
+    }
+
+    /**
+     * Limits the steps the interpreter may take, and lets another thread
+     * cancel it. Steps are function calls and loop iterations, which any long
+     * running script keeps taking. Functions are not compiled by the
+     * {@link Jit} while a budget is set, as compiled code does not count
+     * steps. Only affects functions defined afterwards.
+     */
+    public void setBudget(Budget budget) {
+        this.budget = budget;
+        this.steps = 0;
+        this.nextCheck = (budget != null) ? 0 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the invocation counter of a function, or {@code null} if it is
+     * not considered for compilation.
+     */
+    public Jit.Counter getJitCounter(String name, int arity) {
+        return jitCounters.get(name + "/" + arity);
+    }
+
     @Override
     public Environment.PlcObject visit(Ast.Source ast) {
         for (Ast.Global global : ast.getGlobals()) {
@@ -44,7 +127,22 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             new Ast.Expression.Function("main", Arrays.asList());
 
         // will automatically throw exception if main function is not found
-        return visit(mainFunction);
+        return main(mainFunction);
+    }
+
+    /**
+     * Calls main. Calls recurse on the Java stack, so recursion too deep for it
+     * ends in a {@link StackOverflowError}. It is not caught, as it can be
+     * thrown half way through updating the interpreter's state; the
+     * {@link VirtualMachine} is the mode with a bounded call stack.
+     */
+    private Environment.PlcObject main(Ast.Expression.Function mainFunction) {
+        try {
+            return visit(mainFunction);
+        }
+        finally {
+            sink.flush();
+        }
     }
 
     @Override
@@ -58,33 +156,91 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         return Environment.NIL;
     }
 
+    /**
+     * Functions the analyzer assigned slots to run in a frame: an array holding
+     * the arguments and local variables, which are accessed by slot instead of
+     * being looked up by name in a scope per call and block. Other functions
+     * run in scopes as before.
+     *
+     * <p>A tail call of the function itself (see
+     * {@link Ast.Statement.Return#getTail()}) leaves its arguments in
+     * {@code tailArguments}, and the body runs again in the same frame or
+     * scope, so accumulator style recursion needs no Java stack.</p>
+     */
     @Override
     public Environment.PlcObject visit(Ast.Function ast) {
         List<String> placeholders = ast.getParameters();
+        int frameSize = ast.getFrameSize();
         Scope originalScope = scope;
-        java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> function = arguments -> {
-            Scope tempScope = scope;
-            scope = new Scope(originalScope);
+        java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> function = arguments -> call(ast, originalScope, arguments);
+        if (jitThreshold > 0 && frameSize >= 0 && budget == null) {
+            Jit.Counter counter = new Jit.Counter(ast, jitThreshold, function);
+            jitCounters.put(ast.getName() + "/" + placeholders.size(), counter);
+            function = counter;
+        }
+        if (memoCapacity > 0 && ast.getPure()) {
+            MemoCache cache = new MemoCache(memoCapacity);
+            memoCaches.put(ast.getName() + "/" + placeholders.size(), cache);
+            function = cache.wrap(function);
+        }
+        scope.defineFunction(ast.getName(), placeholders.size(), function);
+
+        return Environment.NIL;
+    }
+
+    /**
+     * Runs the body of a function, whose globals are in {@code definition},
+     * and returns its result.
+     */
+    private Environment.PlcObject call(Ast.Function ast, Scope definition, List<Environment.PlcObject> arguments) {
+        List<String> placeholders = ast.getParameters();
+        int frameSize = ast.getFrameSize();
+        if (++steps >= nextCheck) safepoint();
+        Scope tempScope = scope;
+        Environment.PlcObject[] tempFrame = frame;
+        if (frameSize >= 0) {
+            scope = definition;
+            frame = new Environment.PlcObject[frameSize];
             for (int i = 0; i < arguments.size(); i++) {
-                Object parameterValue = arguments.get(i).getValue();
-                scope.defineVariable(placeholders.get(i), true, Environment.create(parameterValue));
-            }
-            try {
-                for (Ast.Statement statement : ast.getStatements()) {
-                    visit(statement);
-                }
+                frame[i] = arguments.get(i);
             }
-            catch (Return r) {
-                return r.value;
+        }
+        else {
+            scope = new Scope(definition);
+            frame = null;
+            for (int i = 0; i < arguments.size(); i++) {
+                scope.defineVariable(placeholders.get(i), true, arguments.get(i));
             }
-            finally {
-                scope = tempScope;
+        }
+        try {
+            block(ast.getStatements());
+            while (tailArguments != null) {
+                if (++steps >= nextCheck) safepoint();
+                List<Environment.PlcObject> next = tailArguments;
+                tailArguments = null;
+                returned = null;
+                if (frameSize >= 0) {
+                    Arrays.fill(frame, null);
+                    for (int i = 0; i < next.size(); i++) {
+                        frame[i] = next.get(i);
+                    }
+                }
+                else {
+                    scope.clearVariables();
+                    for (int i = 0; i < next.size(); i++) {
+                        scope.defineVariable(placeholders.get(i), true, next.get(i));
+                    }
+                }
+                block(ast.getStatements());
             }
-            return Environment.NIL;
-        };
-        scope.defineFunction(ast.getName(), placeholders.size(), function);
-
-        return Environment.NIL;
+        }
+        finally {
+            scope = tempScope;
+            frame = tempFrame;
+        }
+        Environment.PlcObject result = returned;
+        returned = null;
+        return (result != null) ? result : Environment.NIL;
     }
 
     @Override
@@ -100,7 +256,8 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         Optional<Ast.Expression> expression = ast.getValue();
         if ((Object) expression != Optional.empty()) valueObj = visit(expression.get());
 
-        scope.defineVariable(ast.getName(), true, valueObj);
+        if (frame != null) frame[ast.getVariable().getSlot()] = valueObj;
+        else scope.defineVariable(ast.getName(), true, valueObj);
         return Environment.NIL;
     }
 
@@ -109,11 +266,20 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         if (!(ast.getReceiver() instanceof Ast.Expression.Access)) throw new RuntimeException("Reciever is not of type Ast.Expression.Access!");
 
         Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
-        Environment.Variable variable = scope.lookupVariable(receiver.getName());
+        int slot = slot(receiver);
+        Environment.Variable variable = (slot < 0) ? scope.lookupVariable(receiver.getName()) : null;
 
         Environment.PlcObject valueObj = visit(ast.getValue());
 
-        if ((Object) receiver.getOffset() == Optional.empty()) {
+        if (slot >= 0 && (Object) receiver.getOffset() == Optional.empty()) {
+            frame[slot] = valueObj;
+        }
+        else if (slot >= 0) {
+            Environment.PlcObject indexObj = visit(receiver.getOffset().get());
+            requireType(BigInteger.class, indexObj);
+            ((List<Object>) frame[slot].getValue()).set(((BigInteger) indexObj.getValue()).intValueExact(), valueObj.getValue());
+        }
+        else if ((Object) receiver.getOffset() == Optional.empty()) {
             if (variable.getMutable()) variable.setValue(valueObj);
             else throw new RuntimeException("Trying to change unmutable variable!");
         }
@@ -135,87 +301,126 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         return Environment.NIL;
     }
 
+    /**
+     * Blocks get a scope of their own only when they may declare variables
+     * and the function is not running in a frame, which already holds them.
+     */
     @Override
     public Environment.PlcObject visit(Ast.Statement.If ast) {
-        scope = new Scope(scope);
+        Scope outer = scope;
+        if (frame == null && ast.getScoped()) scope = new Scope(scope);
         Environment.PlcObject conditionEval = visit(ast.getCondition());
 
         requireType(Boolean.class, conditionEval);
         if ((Boolean) conditionEval.getValue()) {
-            List<Ast.Statement> thenStatements = ast.getThenStatements();
-            for (Ast.Statement statement : thenStatements) visit(statement);
+            block(ast.getThenStatements());
         }
         else {
-            List<Ast.Statement> elseStatements = ast.getElseStatements();
-            for (Ast.Statement statement : elseStatements) visit(statement);
+            block(ast.getElseStatements());
         }
-        scope = scope.getParent();
+        scope = outer;
         return Environment.NIL;
     }
 
+    /**
+     * Runs every case whose value equals the condition, in order, or else the
+     * default, stopping once a case returns. When the values are all literals
+     * the cases are found in a table instead of evaluating and comparing each
+     * value in turn.
+     */
     @Override
     public Environment.PlcObject visit(Ast.Statement.Switch ast) {
-        scope = new Scope(scope);
         Environment.PlcObject conditionEval = visit(ast.getCondition());
         List<Ast.Statement.Case> cases = ast.getCases();
-        Ast.Statement.Case defaultCase = null;
+        Optional<Map<Object, int[]>> dispatch = ast.getDispatch();
         boolean foundCase = false;
 
-        for (Ast.Statement.Case _case : cases) {
-            if (((Object) _case.getValue()) == Optional.empty()) {
-                defaultCase = _case;
-                continue;
+        if (dispatch.isPresent()) {
+            int[] indices = dispatch.get().get(conditionEval.getValue());
+            if (indices != null) {
+                for (int index : indices) {
+                    visit(cases.get(index));
+                    if (returned != null) break;
+                }
+                return Environment.NIL;
             }
-            Object caseCondition = visit(_case.getValue().get()).getValue();
-            if (caseCondition.equals(conditionEval.getValue())) {
-                foundCase = true;
-                visit(_case);
+        }
+        else {
+            for (Ast.Statement.Case _case : cases) {
+                if (((Object) _case.getValue()) == Optional.empty()) continue;
+                Object caseCondition = visit(_case.getValue().get()).getValue();
+                if (caseCondition.equals(conditionEval.getValue())) {
+                    foundCase = true;
+                    visit(_case);
+                    if (returned != null) break;
+                }
             }
         }
 
         if (!foundCase) {
-            visit(defaultCase);
+            visit(cases.get(ast.getDefaultIndex()));
         }
-        scope = scope.getParent();
         return Environment.NIL;
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Statement.Case ast) {
-        scope = new Scope(scope);
-        for (Ast.Statement statement : ast.getStatements()) {
-            visit(statement);
-        }
-        scope = scope.getParent();
+        Scope outer = scope;
+        if (frame == null && ast.getScoped()) scope = new Scope(scope);
+        block(ast.getStatements());
+        scope = outer;
         return Environment.NIL;
     }
 
+    /**
+     * A body that declares variables runs every iteration in the same scope,
+     * which is emptied first so the declarations start over.
+     */
     @Override
     public Environment.PlcObject visit(Ast.Statement.While ast) {
-        scope = new Scope(scope);
+        Scope outer = scope;
+        Scope body = (frame == null && ast.getScoped()) ? new Scope(scope) : null;
 
         Environment.PlcObject condition = visit(ast.getCondition());
         requireType(Boolean.class, condition);
 
         List<Ast.Statement> statements = ast.getStatements();
         while ((Boolean) visit(ast.getCondition()).getValue()) {
-            for (Ast.Statement statement : statements) {
-                visit(statement);
+            if (++steps >= nextCheck) safepoint();
+            if (body != null) {
+                body.clearVariables();
+                scope = body;
             }
+            block(statements);
+            scope = outer;
+            if (returned != null) break;
         }
 
-        scope = scope.getParent();
         return Environment.NIL;
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Statement.Return ast) {
-        throw new Return(visit(ast.getValue()));
+        if (ast.getTail()) {
+            List<Ast.Expression> arguments = ((Ast.Expression.Function) ast.getValue()).getArguments();
+            List<Environment.PlcObject> argumentResults = new ArrayList<>(arguments.size());
+            for (Ast.Expression argument : arguments) {
+                argumentResults.add(visit(argument));
+            }
+            tailArguments = argumentResults;
+            returned = Environment.NIL;
+            return Environment.NIL;
+        }
+        returned = visit(ast.getValue());
+        return Environment.NIL;
     }
 
     @Override
     public Environment.PlcObject visit(Ast.Expression.Literal ast) {
         if (ast.getLiteral() == null) return Environment.NIL;
+        if (ast.getLiteral() instanceof BigInteger && ((BigInteger) ast.getLiteral()).bitLength() < 64) {
+            return Environment.createInteger(((BigInteger) ast.getLiteral()).longValue());
+        }
         return Environment.create(ast.getLiteral());
     }
 
@@ -258,6 +463,10 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
             case "<": {
                 Environment.PlcObject right = visit(ast.getRight());
+                if (left.getSmall() && right.getSmall()) {
+                    returnVal = Environment.create(left.getLong() < right.getLong());
+                    break;
+                }
                 requireType(Comparable.class, left);
                 requireType(Comparable.class, right);
                 requireType(right.getValue().getClass(), left);
@@ -269,6 +478,10 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             }
             case ">": {
                 Environment.PlcObject right = visit(ast.getRight());
+                if (left.getSmall() && right.getSmall()) {
+                    returnVal = Environment.create(left.getLong() > right.getLong());
+                    break;
+                }
                 requireType(Comparable.class, left);
                 requireType(Comparable.class, right);
                 requireType(right.getValue().getClass(), left);
@@ -281,11 +494,19 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
             case "==": {
                 Environment.PlcObject right = visit(ast.getRight());
+                if (left.getSmall() && right.getSmall()) {
+                    returnVal = Environment.create(left.getLong() == right.getLong());
+                    break;
+                }
                 returnVal = Environment.create(Objects.equals(left.getValue(), right.getValue()));
                 break;
             }
             case "!=": {
                 Environment.PlcObject right = visit(ast.getRight());
+                if (left.getSmall() && right.getSmall()) {
+                    returnVal = Environment.create(left.getLong() != right.getLong());
+                    break;
+                }
                 returnVal = Environment.create(!(Objects.equals(left.getValue(), right.getValue())));
                 break;
             }
@@ -293,6 +514,14 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             case "+": {
                 Environment.PlcObject right = visit(ast.getRight());
 
+                if (left.getSmall() && right.getSmall()) {
+                    try {
+                        returnVal = Environment.createInteger(ast.getPrimitive() ? left.getLong() + right.getLong() : Math.addExact(left.getLong(), right.getLong()));
+                        break;
+                    } catch (ArithmeticException e) {
+                        // overflowed, so the BigInteger path below computes the result
+                    }
+                }
                 if (left.getValue() instanceof String || right.getValue() instanceof String) {
                     returnVal = Environment.create(left.getValue().toString() + right.getValue().toString());
                 }
@@ -308,6 +537,14 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             }
             case "-": {
                 Environment.PlcObject right = visit(ast.getRight());
+                if (left.getSmall() && right.getSmall()) {
+                    try {
+                        returnVal = Environment.createInteger(ast.getPrimitive() ? left.getLong() - right.getLong() : Math.subtractExact(left.getLong(), right.getLong()));
+                        break;
+                    } catch (ArithmeticException e) {
+                        // overflowed, so the BigInteger path below computes the result
+                    }
+                }
                 if (left.getValue() instanceof BigInteger && right.getValue() instanceof BigInteger) {
                     returnVal = Environment.create(((BigInteger) left.getValue()).subtract((BigInteger) (right.getValue())));
                 }
@@ -320,6 +557,14 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
             case "*": {
                 Environment.PlcObject right = visit(ast.getRight());
+                if (left.getSmall() && right.getSmall()) {
+                    try {
+                        returnVal = Environment.createInteger(ast.getPrimitive() ? left.getLong() * right.getLong() : Math.multiplyExact(left.getLong(), right.getLong()));
+                        break;
+                    } catch (ArithmeticException e) {
+                        // overflowed, so the BigInteger path below computes the result
+                    }
+                }
                 if (left.getValue() instanceof BigInteger && right.getValue() instanceof BigInteger) {
                     returnVal = Environment.create(((BigInteger) left.getValue()).multiply((BigInteger) (right.getValue())));
                 }
@@ -332,6 +577,11 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
             case "/": {
                 Environment.PlcObject right = visit(ast.getRight());
+                // dividing by zero and Long.MIN_VALUE / -1 take the BigInteger path
+                if (left.getSmall() && right.getSmall() && right.getLong() != 0 && (right.getLong() != -1 || left.getLong() != Long.MIN_VALUE)) {
+                    returnVal = Environment.createInteger(left.getLong() / right.getLong());
+                    break;
+                }
                 if (left.getValue() instanceof BigInteger && right.getValue() instanceof BigInteger) {
                     if (right.getValue().equals(0)) throw new RuntimeException("Can't divide by zero!");
                     returnVal = Environment.create(((BigInteger) left.getValue()).divide((BigInteger) (right.getValue())));
@@ -346,15 +596,17 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
             case "^": {
                 Environment.PlcObject right = visit(ast.getRight());
+                if (left.getSmall() && right.getSmall() && right.getLong() >= 0 && right.getLong() <= Integer.MAX_VALUE) {
+                    try {
+                        returnVal = Environment.createInteger(power(left.getLong(), (int) right.getLong()));
+                        break;
+                    } catch (ArithmeticException e) {
+                        // overflowed, so the BigInteger path below computes the result
+                    }
+                }
                 requireType(BigInteger.class, left);
                 requireType(BigInteger.class, right);
-                BigInteger left_num = (BigInteger) left.getValue();
-                BigInteger right_num = (BigInteger) right.getValue();
-                BigInteger temp = left_num;
-                for (BigInteger i = new BigInteger("1"); i.compareTo(right_num) == -1; i = i.add(new BigInteger("1"))) {
-                    temp = temp.multiply(left_num);
-                }
-                returnVal = Environment.create(temp);
+                returnVal = Environment.create(power((BigInteger) left.getValue(), (BigInteger) right.getValue()));
                 break;
             }
 
@@ -367,9 +619,10 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
     @Override
     public Environment.PlcObject visit(Ast.Expression.Access ast) {
-        Environment.Variable variable = scope.lookupVariable(ast.getName());
+        int slot = slot(ast);
+        Environment.PlcObject value = (slot >= 0) ? frame[slot] : scope.lookupVariable(ast.getName()).getValue();
         if ((Object) ast.getOffset() == Optional.empty()) {
-            return variable.getValue();
+            return value;
         }
         else {
             Environment.PlcObject indexObj = visit(ast.getOffset().get());
@@ -378,7 +631,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
 
             int index = ((BigInteger) indexObj.getValue()).intValueExact();
 
-            List<Object> array = (List<Object>) variable.getValue().getValue();
+            List<Object> array = (List<Object>) value.getValue();
 
             if (index >= array.size()) throw new RuntimeException("Index out of range!");
             return Environment.create(array.get(index));
@@ -394,7 +647,7 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
             argumentResults.add(visit(expression));
         }
 
-        Environment.Function function = scope.lookupFunction(ast.getName(), arguments.size());
+        Environment.Function function = ast.getCallCache().lookup(scope);
         return function.invoke(argumentResults);
     }
 
@@ -408,6 +661,83 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
         return Environment.create(newArray);
     }
 
+    /**
+     * Raises an integer to an integer power by squaring. Anything to the power
+     * of zero is one. A negative exponent gives the reciprocal of the power,
+     * truncated towards zero like integer division: zero unless the base is
+     * one or minus one, and an error for a base of zero. This matches the
+     * {@code (int) Math.pow(...)} emitted by the {@link Generator} wherever
+     * the result fits in an {@code int}.
+     */
+    static BigInteger power(BigInteger base, BigInteger exponent) {
+        if (base.abs().compareTo(BigInteger.ONE) <= 0 || exponent.signum() < 0) {
+            if (exponent.signum() < 0 && base.signum() == 0) throw new RuntimeException("Can't divide by zero!");
+            if (exponent.signum() == 0) return BigInteger.ONE;
+            if (base.abs().equals(BigInteger.ONE)) return exponent.testBit(0) ? base : BigInteger.ONE;
+            return BigInteger.ZERO;
+        }
+        if (exponent.bitLength() > 31) throw new RuntimeException("Exponent is too large!");
+        if (base.bitLength() < 64) {
+            try {
+                return BigInteger.valueOf(power(base.longValue(), exponent.intValue()));
+            } catch (ArithmeticException e) {
+                // overflowed, so BigInteger.pow computes the result
+            }
+        }
+        return base.pow(exponent.intValue());
+    }
+
+    /**
+     * Raises a {@code long} to a non-negative power by squaring, throwing an
+     * {@link ArithmeticException} if the result overflows.
+     */
+    private static long power(long base, int exponent) {
+        long result = 1;
+        while (true) {
+            if ((exponent & 1) != 0) result = Math.multiplyExact(result, base);
+            exponent >>>= 1;
+            if (exponent == 0) return result;
+            base = Math.multiplyExact(base, base);
+        }
+    }
+
+    /**
+     * Visits statements in order, stopping after a {@code RETURN}. A return
+     * stores its value in {@code returned}, which every enclosing block checks
+     * the same way until the function takes the value, so returning needs no
+     * exception.
+     */
+    private void block(List<Ast.Statement> statements) {
+        for (Ast.Statement statement : statements) {
+            visit(statement);
+            if (returned != null) return;
+        }
+    }
+
+    /**
+     * Checks the budget. This happens at most every {@link Budget#INTERVAL}
+     * steps, so taking a step costs one comparison and a cancellation is
+     * noticed within that many steps.
+     */
+    private void safepoint() {
+        if (budget.cancelled) {
+            throw new Aborted("Execution cancelled!", steps);
+        }
+        if (steps > budget.steps) {
+            throw new Aborted("Step limit exceeded!", steps);
+        }
+        long remaining = budget.steps - steps;
+        nextCheck = steps + ((remaining < Budget.INTERVAL) ? remaining + 1 : Budget.INTERVAL);
+    }
+
+    /**
+     * Returns the frame slot of a local variable, or {@code -1} if it is a
+     * global or the current function does not run in a frame.
+     */
+    private int slot(Ast.Expression.Access ast) {
+        return (frame != null) ? ast.getVariable().getSlot() : -1;
+    }
+
     /**
      * Helper function to ensure an object is of the appropriate type.
      */
@@ -420,14 +750,269 @@ public class Interpreter implements Ast.Visitor<Environment.PlcObject> {
     }
 
     /**
-     * Exception class for returning values.
+     * A source loaded to be run any number of times, possibly concurrently.
+     * Its functions are defined once, in a scope every run shares, while each
+     * run gets an interpreter of its own holding the globals and the calls in
+     * progress. The shared functions find the interpreter of the run calling
+     * them through a thread local, which a run sets on the thread running it.
+     *
+     * <p>Memoization and the {@link Jit} are not used by programs.</p>
      */
-    private static class Return extends RuntimeException {
+    public static final class Program {
+
+        private static final ThreadLocal<Interpreter> CURRENT = new ThreadLocal<>();
+
+        private final Ast.Source ast;
+        private final Scope functions = new Scope(null);
+        private final Ast.Expression.Function main = new Ast.Expression.Function("main", Arrays.asList());
+
+        public Program(Ast.Source ast) {
+            this.ast = ast;
+            functions.defineFunction("print", 1, args -> {
+                CURRENT.get().sink.print(String.valueOf(args.get(0).getValue()));
+                return Environment.NIL;
+            });
+            for (Ast.Function function : ast.getFunctions()) {
+                functions.defineFunction(function.getName(), function.getParameters().size(),
+                        arguments -> {
+                            Interpreter interpreter = CURRENT.get();
+                            return interpreter.call(function, interpreter.globals, arguments);
+                        });
+            }
+        }
 
-        private final Environment.PlcObject value;
+        /**
+         * Initializes the globals and returns the result of calling main, on
+         * the calling thread.
+         */
+        public Environment.PlcObject run() {
+            return run(Sink.standard());
+        }
+
+        /**
+         * Runs the program like {@link #run()}, printing to {@code sink}.
+         */
+        public Environment.PlcObject run(Sink sink) {
+            return run(sink, null);
+        }
+
+        /**
+         * Runs the program like {@link #run(Sink)}, within a budget (see
+         * {@link Interpreter#setBudget(Budget)}) unless it is null.
+         */
+        public Environment.PlcObject run(Sink sink, Budget budget) {
+            Interpreter interpreter = new Interpreter(this);
+            interpreter.sink = sink;
+            interpreter.setBudget(budget);
+            Interpreter outer = CURRENT.get();
+            CURRENT.set(interpreter);
+            try {
+                for (Ast.Global global : ast.getGlobals()) {
+                    interpreter.visit(global);
+                }
+                return interpreter.main(main);
+            }
+            finally {
+                if (outer != null) CURRENT.set(outer);
+                else CURRENT.remove();
+            }
+        }
+
+    }
+
+    /**
+     * Where {@code print} writes its lines. Sinks may buffer what they are
+     * given until they are flushed, which the interpreter does when main
+     * returns. Failing to write throws an {@link UncheckedIOException}.
+     */
+    public interface Sink {
+
+        void print(String line);
+
+        default void flush() {}
+
+        /**
+         * Prints each line with {@code System.out.println}, as it is printed.
+         */
+        static Sink standard() {
+            return line -> System.out.println(line);
+        }
+
+        /**
+         * Discards everything printed.
+         */
+        static Sink none() {
+            return line -> {};
+        }
+
+        static Sink of(StringBuilder builder) {
+            return line -> builder.append(line).append(System.lineSeparator());
+        }
+
+        /**
+         * Writes lines to a writer, which is flushed with the sink. Pass a
+         * {@link java.io.BufferedWriter} to write in blocks.
+         */
+        static Sink of(Writer writer) {
+            return new Sink() {
+                @Override
+                public void print(String line) {
+                    try {
+                        writer.write(line);
+                        writer.write(System.lineSeparator());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                @Override
+                public void flush() {
+                    try {
+                        writer.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            };
+        }
+
+        /**
+         * Encodes lines as UTF-8 into a buffer, which is written to the
+         * channel when it fills up and when the sink is flushed.
+         */
+        static Sink of(WritableByteChannel channel) {
+            return new Sink() {
+                private final ByteBuffer buffer = ByteBuffer.allocate(8192);
+
+                @Override
+                public void print(String line) {
+                    byte[] bytes = (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+                    for (int offset = 0; offset < bytes.length; ) {
+                        if (!buffer.hasRemaining()) flush();
+                        int length = Math.min(buffer.remaining(), bytes.length - offset);
+                        buffer.put(bytes, offset, length);
+                        offset += length;
+                    }
+                }
+
+                @Override
+                public void flush() {
+                    buffer.flip();
+                    try {
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        buffer.clear();
+                    }
+                }
+            };
+        }
+
+    }
+
+    /**
+     * The number of steps a run may take, and a flag to cancel it from another
+     * thread.
+     */
+    public static final class Budget {
+
+        private static final long INTERVAL = 1024;
+
+        private final long steps;
+        private volatile boolean cancelled = false;
+
+        public Budget(long steps) {
+            this.steps = steps;
+        }
+
+        public long getSteps() {
+            return steps;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean getCancelled() {
+            return cancelled;
+        }
+
+    }
+
+    /**
+     * Thrown when a run exceeds its budget or is cancelled, after the given
+     * number of steps.
+     */
+    public static final class Aborted extends RuntimeException {
+
+        private final long steps;
+
+        public Aborted(String message, long steps) {
+            super(message);
+            this.steps = steps;
+        }
+
+        public long getSteps() {
+            return steps;
+        }
+
+    }
+
+    /**
+     * A bounded, least recently used cache of the results of a pure function,
+     * keyed by the values of its arguments.
+     */
+    public static final class MemoCache {
+
+        private final Map<List<Object>, Environment.PlcObject> results;
+        private long hits = 0;
+        private long misses = 0;
+
+        private MemoCache(int capacity) {
+            this.results = new LinkedHashMap<List<Object>, Environment.PlcObject>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, Environment.PlcObject> eldest) {
+                    return size() > capacity;
+                }
+
+            };
+        }
+
+        private java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> wrap(java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
+            return arguments -> {
+                List<Object> key = new ArrayList<>(arguments.size());
+                for (Environment.PlcObject argument : arguments) {
+                    // lists can change after the call, so they are never part of a key
+                    if (argument.getValue() instanceof List) return function.apply(arguments);
+                    key.add(argument.getValue());
+                }
+
+                Environment.PlcObject result = results.get(key);
+                if (result != null) {
+                    hits++;
+                    return result;
+                }
+                misses++;
+                result = function.apply(arguments);
+                results.put(key, result);
+                return result;
+            };
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
 
-        private Return(Environment.PlcObject value) {
-            this.value = value;
+        public int size() {
+            return results.size();
         }
 
     }
@@ -0,0 +1,702 @@
+package plc.project;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Compiles analyzed functions straight to JVM bytecode, loaded in process as
+ * hidden classes, so hot numeric code runs without the interpreter.
+ *
+ * Only functions over {@code Integer} values are compiled: the parameters and
+ * result must be integers, locals integers or booleans, and the body may only
+ * use arithmetic, comparisons, logical operators, if, while and calls to the
+ * function itself. Integers are compiled to {@code long} with overflow checked
+ * arithmetic. Such a function has no effects, so whenever the compiled code
+ * cannot produce the exact result (an overflow, a division by zero or falling
+ * off the end of the function) the call is simply run again interpreted.
+ */
+public final class Jit {
+
+    private static final String CLASS = "plc/project/Jit$Compiled";
+    private static final String CODE = "plc/project/Jit$Code";
+    private static final String JIT = "plc/project/Jit";
+
+    private Jit() {}
+
+    /**
+     * The interface implemented by compiled functions, taking the arguments
+     * as {@code long} values.
+     */
+    interface Code {
+
+        long invoke(long[] arguments);
+
+    }
+
+    /**
+     * Compiles the function, or returns empty if it uses anything the
+     * compiler does not support.
+     */
+    public static Optional<Code> compile(Ast.Function ast) {
+        byte[] bytes;
+        try {
+            bytes = new Emitter(ast).assemble();
+        } catch (Unsupported e) {
+            return Optional.empty();
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return Optional.of((Code) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke());
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Integer division for compiled code, deoptimizing where it would not
+     * match {@link BigInteger#divide(BigInteger)}.
+     */
+    static long divide(long left, long right) {
+        if (right == 0 || (left == Long.MIN_VALUE && right == -1)) {
+            throw new Deoptimization();
+        }
+        return left / right;
+    }
+
+    /**
+     * Called by compiled code that reaches the end of the function, which
+     * returns {@code NIL} rather than an integer.
+     */
+    static long deoptimize() {
+        throw new Deoptimization();
+    }
+
+    /**
+     * Wraps the interpreted implementation of a function, counting its
+     * invocations and compiling it once the count reaches the threshold.
+     * Afterwards calls run the compiled code, falling back to the interpreted
+     * implementation for arguments or results that do not fit in a
+     * {@code long}. A function that cannot be compiled stays interpreted.
+     */
+    public static final class Counter implements java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> {
+
+        private final Ast.Function ast;
+        private final java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> interpreted;
+        private final int threshold;
+        private int invocations = 0;
+        private Code code = null;
+
+        public Counter(Ast.Function ast, int threshold, java.util.function.Function<List<Environment.PlcObject>, Environment.PlcObject> interpreted) {
+            this.ast = ast;
+            this.threshold = threshold;
+            this.interpreted = interpreted;
+        }
+
+        @Override
+        public Environment.PlcObject apply(List<Environment.PlcObject> arguments) {
+            if (code == null) {
+                // the count stops at the threshold if compiling failed
+                if (invocations == threshold || ++invocations < threshold) {
+                    return interpreted.apply(arguments);
+                }
+                code = compile(ast).orElse(null);
+                if (code == null) {
+                    return interpreted.apply(arguments);
+                }
+            }
+
+            long[] values = new long[arguments.size()];
+            for (int i = 0; i < values.length; i++) {
+                Object value = arguments.get(i).getValue();
+                if (!(value instanceof BigInteger) || ((BigInteger) value).bitLength() > 63) {
+                    return interpreted.apply(arguments);
+                }
+                values[i] = ((BigInteger) value).longValue();
+            }
+            try {
+                return Environment.create(BigInteger.valueOf(code.invoke(values)));
+            } catch (ArithmeticException | Deoptimization e) {
+                return interpreted.apply(arguments);
+            }
+        }
+
+        public int getInvocations() {
+            return invocations;
+        }
+
+        /**
+         * Whether calls now run compiled code.
+         */
+        public boolean getCompiled() {
+            return code != null;
+        }
+
+    }
+
+    /**
+     * Thrown by compiled code that cannot produce the exact result.
+     */
+    private static final class Deoptimization extends RuntimeException {
+
+        private Deoptimization() {
+            super(null, null, false, false);
+        }
+
+    }
+
+    /**
+     * Thrown while emitting a function that cannot be compiled.
+     */
+    private static final class Unsupported extends RuntimeException {
+
+        private Unsupported() {
+            super(null, null, false, false);
+        }
+
+    }
+
+    /**
+     * A position in the code, possibly before it is known.
+     */
+    private static final class Label {
+
+        private int position = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+
+    }
+
+    /**
+     * Emits the class file of a single function. Expressions leave a
+     * {@code long} (integers) or an {@code int} (booleans) on the operand
+     * stack and return their type; statements return {@code null}. The class
+     * file uses version 49, which the verifier checks by type inference, so
+     * no stack map frames are needed.
+     */
+    private static final class Emitter implements Ast.Visitor<Environment.Type> {
+
+        private final Ast.Function function;
+        private final Label start = new Label();
+        private final List<byte[]> pool = new ArrayList<>();
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int poolSize = 1;
+        private byte[] code = new byte[64];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+
+        private Emitter(Ast.Function function) {
+            this.function = function;
+        }
+
+        private byte[] assemble() {
+            if (function.getFrameSize() < 0 || 2 * function.getFrameSize() > 255
+                    || !function.getFunction().getReturnType().equals(Environment.Type.INTEGER)) {
+                throw new Unsupported();
+            }
+            for (Environment.Type type : function.getFunction().getParameterTypes()) {
+                if (!type.equals(Environment.Type.INTEGER)) throw new Unsupported();
+            }
+            StringBuilder descriptor = new StringBuilder("(");
+            for (int i = 0; i < function.getParameters().size(); i++) {
+                descriptor.append("J");
+            }
+            String signature = descriptor.append(")J").toString();
+
+            visit(function);
+            byte[] body = Arrays.copyOf(code, length);
+            int bodyStack = maxStack;
+            if (body.length > 65535) throw new Unsupported();
+
+            // invoke(long[]) unpacks the arguments and calls the function
+            code = new byte[64];
+            length = 0;
+            stack = 0;
+            maxStack = 0;
+            for (int i = 0; i < function.getParameters().size(); i++) {
+                op(0x2B, 1); // aload_1
+                integer(i);
+                op(0x2F, 0); // laload
+            }
+            op(0xB8, -2 * function.getParameters().size() + 2); // invokestatic
+            u2(methodref(CLASS, "call", signature));
+            op(0xAD, -2); // lreturn
+            byte[] invoke = Arrays.copyOf(code, length);
+            int invokeStack = maxStack;
+
+            int objectInit = methodref("java/lang/Object", "<init>", "()V");
+            int thisClass = classref(CLASS);
+            int superClass = classref("java/lang/Object");
+            int codeInterface = classref(CODE);
+            int codeName = utf8("Code");
+            int initName = utf8("<init>");
+            int initType = utf8("()V");
+            int invokeName = utf8("invoke");
+            int invokeType = utf8("([J)J");
+            int callName = utf8("call");
+            int callType = utf8(signature);
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(0xCAFEBABE);
+                out.writeShort(0);
+                out.writeShort(49);
+                out.writeShort(poolSize);
+                for (byte[] entry : pool) {
+                    out.write(entry);
+                }
+                out.writeShort(0x0030); // final super
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(codeInterface);
+                out.writeShort(0);
+                out.writeShort(3);
+                method(out, 0x0001, initName, initType, codeName, 1, 1,
+                        new byte[] { 0x2A, (byte) 0xB7, (byte) (objectInit >> 8), (byte) objectInit, (byte) 0xB1 });
+                method(out, 0x0001, invokeName, invokeType, codeName, invokeStack, 2, invoke);
+                method(out, 0x000A, callName, callType, codeName, bodyStack, 2 * function.getFrameSize(), body);
+                out.writeShort(0);
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static void method(DataOutputStream out, int access, int name, int type, int codeName, int maxStack, int maxLocals, byte[] code) throws IOException {
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(type);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Source ast) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Global ast) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Function ast) {
+            place(start);
+            for (Ast.Statement statement : ast.getStatements()) {
+                visit(statement);
+            }
+            invoke(JIT, "deoptimize", "()J", 2);
+            op(0xAD, -2); // lreturn
+            return null;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Statement.Expression ast) {
+            if (!(ast.getExpression() instanceof Ast.Expression.Function)) throw new Unsupported();
+            visit(ast.getExpression());
+            op(0x58, -2); // pop2
+            return null;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Statement.Declaration ast) {
+            if (!ast.getValue().isPresent()) throw new Unsupported();
+            store(ast.getVariable(), ast.getValue().get());
+            return null;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Statement.Assignment ast) {
+            if (!(ast.getReceiver() instanceof Ast.Expression.Access)) throw new Unsupported();
+            Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+            if (receiver.getOffset().isPresent()) throw new Unsupported();
+            store(receiver.getVariable(), ast.getValue());
+            return null;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Statement.If ast) {
+            Label otherwise = new Label();
+            Label end = new Label();
+            branch(ast.getCondition(), otherwise, false);
+            for (Ast.Statement statement : ast.getThenStatements()) {
+                visit(statement);
+            }
+            jump(0xA7, end); // goto
+            place(otherwise);
+            for (Ast.Statement statement : ast.getElseStatements()) {
+                visit(statement);
+            }
+            place(end);
+            return null;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Statement.Switch ast) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Statement.Case ast) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Statement.While ast) {
+            Label condition = new Label();
+            Label end = new Label();
+            place(condition);
+            branch(ast.getCondition(), end, false);
+            for (Ast.Statement statement : ast.getStatements()) {
+                visit(statement);
+            }
+            jump(0xA7, condition); // goto
+            place(end);
+            return null;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Statement.Return ast) {
+            if (ast.getTail()) {
+                // a tail call stores its arguments as the parameters and starts over
+                List<Ast.Expression> arguments = ((Ast.Expression.Function) ast.getValue()).getArguments();
+                for (Ast.Expression argument : arguments) {
+                    require(Environment.Type.INTEGER, visit(argument));
+                }
+                for (int i = arguments.size() - 1; i >= 0; i--) {
+                    op(0x37, -2); // lstore
+                    u1(2 * i);
+                }
+                jump(0xA7, start); // goto
+                return null;
+            }
+            require(Environment.Type.INTEGER, visit(ast.getValue()));
+            op(0xAD, -2); // lreturn
+            return null;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Expression.Literal ast) {
+            if (ast.getLiteral() instanceof Boolean) {
+                op((Boolean) ast.getLiteral() ? 0x04 : 0x03, 1); // iconst_1, iconst_0
+                return Environment.Type.BOOLEAN;
+            }
+            if (!(ast.getLiteral() instanceof BigInteger) || ((BigInteger) ast.getLiteral()).bitLength() > 63) {
+                throw new Unsupported();
+            }
+            long value = ((BigInteger) ast.getLiteral()).longValue();
+            if (value == 0 || value == 1) {
+                op(0x09 + (int) value, 2); // lconst_0, lconst_1
+            } else {
+                op(0x14, 2); // ldc2_w
+                u2(constant(value));
+            }
+            return Environment.Type.INTEGER;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Expression.Group ast) {
+            return visit(ast.getExpression());
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Expression.Binary ast) {
+            switch (ast.getOperator()) {
+                case "+":
+                    return arithmetic(ast, "java/lang/Math", "addExact");
+                case "-":
+                    return arithmetic(ast, "java/lang/Math", "subtractExact");
+                case "*":
+                    return arithmetic(ast, "java/lang/Math", "multiplyExact");
+                case "/":
+                    return arithmetic(ast, JIT, "divide");
+                case "&&":
+                case "||":
+                case "<":
+                case ">":
+                case "==":
+                case "!=":
+                    Label otherwise = new Label();
+                    Label end = new Label();
+                    branch(ast, otherwise, false);
+                    op(0x04, 1); // iconst_1
+                    jump(0xA7, end); // goto
+                    stack--;
+                    place(otherwise);
+                    op(0x03, 1); // iconst_0
+                    place(end);
+                    return Environment.Type.BOOLEAN;
+                default:
+                    throw new Unsupported();
+            }
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Expression.Access ast) {
+            Environment.Variable variable = local(ast);
+            Environment.Type type = variable.getType();
+            if (type.equals(Environment.Type.INTEGER)) {
+                op(0x16, 2); // lload
+            } else if (type.equals(Environment.Type.BOOLEAN)) {
+                op(0x15, 1); // iload
+            } else {
+                throw new Unsupported();
+            }
+            u1(2 * variable.getSlot());
+            return type;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Expression.Function ast) {
+            if (ast.getFunction() != function.getFunction()) throw new Unsupported();
+            for (Ast.Expression argument : ast.getArguments()) {
+                require(Environment.Type.INTEGER, visit(argument));
+            }
+            StringBuilder descriptor = new StringBuilder("(");
+            for (int i = 0; i < ast.getArguments().size(); i++) {
+                descriptor.append("J");
+            }
+            invoke(CLASS, "call", descriptor.append(")J").toString(), 2 - 2 * ast.getArguments().size());
+            return Environment.Type.INTEGER;
+        }
+
+        @Override
+        public Environment.Type visit(Ast.Expression.PlcList ast) {
+            throw new Unsupported();
+        }
+
+        /**
+         * Emits a jump to {@code target} taken if the condition evaluates to
+         * {@code when}, short circuiting logical operators and comparing
+         * integers without materializing a boolean.
+         */
+        private void branch(Ast.Expression condition, Label target, boolean when) {
+            if (condition instanceof Ast.Expression.Group) {
+                branch(((Ast.Expression.Group) condition).getExpression(), target, when);
+                return;
+            }
+            if (condition instanceof Ast.Expression.Binary) {
+                Ast.Expression.Binary binary = (Ast.Expression.Binary) condition;
+                String operator = binary.getOperator();
+                if (operator.equals("&&") || operator.equals("||")) {
+                    // the right operand decides unless the left one short circuits
+                    boolean shortCircuit = operator.equals("||");
+                    if (shortCircuit == when) {
+                        branch(binary.getLeft(), target, when);
+                        branch(binary.getRight(), target, when);
+                    } else {
+                        Label skip = new Label();
+                        branch(binary.getLeft(), skip, shortCircuit);
+                        branch(binary.getRight(), target, when);
+                        place(skip);
+                    }
+                    return;
+                }
+                if (operator.equals("<") || operator.equals(">") || operator.equals("==") || operator.equals("!=")) {
+                    Environment.Type left = visit(binary.getLeft());
+                    Environment.Type right = visit(binary.getRight());
+                    if (!left.equals(right)) throw new Unsupported();
+                    if (left.equals(Environment.Type.INTEGER)) {
+                        op(0x94, -3); // lcmp
+                        switch (operator) {
+                            case "<": jump(when ? 0x9B : 0x9C, target); break; // iflt, ifge
+                            case ">": jump(when ? 0x9D : 0x9E, target); break; // ifgt, ifle
+                            case "==": jump(when ? 0x99 : 0x9A, target); break; // ifeq, ifne
+                            default: jump(when ? 0x9A : 0x99, target); break;
+                        }
+                        stack -= 1;
+                    } else if (operator.equals("==") || operator.equals("!=")) {
+                        boolean equal = operator.equals("==") == when;
+                        jump(equal ? 0x9F : 0xA0, target); // if_icmpeq, if_icmpne
+                        stack -= 2;
+                    } else {
+                        throw new Unsupported();
+                    }
+                    return;
+                }
+            }
+            require(Environment.Type.BOOLEAN, visit(condition));
+            jump(when ? 0x9A : 0x99, target); // ifne, ifeq
+            stack -= 1;
+        }
+
+        private Environment.Type arithmetic(Ast.Expression.Binary ast, String owner, String name) {
+            require(Environment.Type.INTEGER, visit(ast.getLeft()));
+            require(Environment.Type.INTEGER, visit(ast.getRight()));
+            invoke(owner, name, "(JJ)J", -2);
+            return Environment.Type.INTEGER;
+        }
+
+        private void store(Environment.Variable variable, Ast.Expression value) {
+            if (variable.getSlot() < 0) throw new Unsupported();
+            Environment.Type type = variable.getType();
+            require(type, visit(value));
+            if (type.equals(Environment.Type.INTEGER)) {
+                op(0x37, -2); // lstore
+            } else if (type.equals(Environment.Type.BOOLEAN)) {
+                op(0x36, -1); // istore
+            } else {
+                throw new Unsupported();
+            }
+            u1(2 * variable.getSlot());
+        }
+
+        /**
+         * Returns the variable of an access to a local variable of the
+         * function, which are the only ones the compiled code has.
+         */
+        private static Environment.Variable local(Ast.Expression.Access ast) {
+            if (ast.getOffset().isPresent() || ast.getVariable().getSlot() < 0) throw new Unsupported();
+            return ast.getVariable();
+        }
+
+        private static void require(Environment.Type expected, Environment.Type type) {
+            if (!expected.equals(type)) throw new Unsupported();
+        }
+
+        private void invoke(String owner, String name, String descriptor, int delta) {
+            op(0xB8, delta); // invokestatic
+            u2(methodref(owner, name, descriptor));
+        }
+
+        private void integer(int value) {
+            if (value <= 5) {
+                op(0x03 + value, 1); // iconst_<n>
+            } else {
+                op(0x10, 1); // bipush
+                u1(value);
+            }
+        }
+
+        private void op(int opcode, int delta) {
+            u1(opcode);
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void jump(int opcode, Label target) {
+            int position = length;
+            op(opcode, 0);
+            u2(0);
+            if (target.position >= 0) {
+                patch(position, target.position);
+            } else {
+                target.jumps.add(position);
+            }
+        }
+
+        private void place(Label label) {
+            label.position = length;
+            for (int position : label.jumps) {
+                patch(position, length);
+            }
+        }
+
+        private void patch(int position, int target) {
+            int offset = target - position;
+            if (offset != (short) offset) throw new Unsupported();
+            code[position + 1] = (byte) (offset >> 8);
+            code[position + 2] = (byte) offset;
+        }
+
+        private void u1(int value) {
+            if (length == code.length) {
+                code = Arrays.copyOf(code, 2 * length);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private int utf8(String value) {
+            return entry("Utf8:" + value, 1, out -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        private int classref(String name) {
+            int index = utf8(name);
+            return entry("Class:" + name, 1, out -> {
+                out.writeByte(7);
+                out.writeShort(index);
+            });
+        }
+
+        private int methodref(String owner, String name, String descriptor) {
+            int ownerIndex = classref(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int type = entry("NameAndType:" + name + descriptor, 1, out -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("Methodref:" + owner + "." + name + descriptor, 1, out -> {
+                out.writeByte(10);
+                out.writeShort(ownerIndex);
+                out.writeShort(type);
+            });
+        }
+
+        private int constant(long value) {
+            return entry("Long:" + value, 2, out -> {
+                out.writeByte(5);
+                out.writeLong(value);
+            });
+        }
+
+        /**
+         * Returns the index of a constant pool entry, adding it if needed.
+         * Long constants take up two indices.
+         */
+        private int entry(String key, int size, Writer writer) {
+            Integer index = indices.get(key);
+            if (index == null) {
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    writer.write(new DataOutputStream(bytes));
+                    pool.add(bytes.toByteArray());
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                index = poolSize;
+                poolSize += size;
+                indices.put(key, index);
+            }
+            return index;
+        }
+
+        private interface Writer {
+
+            void write(DataOutputStream out) throws IOException;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,323 @@
+package plc.project;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Rewrites an analyzed AST into an equivalent, cheaper one. Every visit method
+ * returns a new node carrying the same analysis results (types, variables,
+ * functions and flags such as tail calls and scoped blocks) as the node it
+ * replaces, so the result can be passed directly to the {@link Interpreter} or
+ * {@link Generator}.
+ *
+ * Constant {@code Binary} and {@code Group} expressions are folded by running
+ * them through the interpreter once. Anything that fails at that point (such
+ * as a division by zero) is left unfolded so the error still happens at
+ * runtime. Immutable globals initialized to literals are propagated into the
+ * places that read them.
+ *
+ * Dead code is removed as well: statements following a {@code RETURN},
+ * branches of an {@code IF} with a constant condition, {@code WHILE} loops
+ * that never run and, when the source has a {@code main/0}, every function
+ * not reachable from it and every global no remaining code uses.
+ */
+public final class Optimizer implements Ast.Visitor<Ast> {
+
+    private final Interpreter interpreter = new Interpreter(new Scope(null));
+    private final Map<Environment.Variable, Ast.Expression.Literal> constants = new IdentityHashMap<>();
+    private Set<String> calls = new HashSet<>();
+    private Set<Environment.Variable> uses = newVariableSet();
+
+    @Override
+    public Ast visit(Ast.Source ast) {
+        List<Ast.Global> globals = new ArrayList<>();
+        List<Set<Environment.Variable>> globalUses = new ArrayList<>();
+        for (Ast.Global global : ast.getGlobals()) {
+            uses = newVariableSet();
+            globals.add((Ast.Global) visit(global));
+            globalUses.add(uses);
+        }
+
+        Map<String, Ast.Function> functions = new LinkedHashMap<>();
+        Map<String, Set<String>> callGraph = new HashMap<>();
+        Map<String, Set<Environment.Variable>> functionUses = new HashMap<>();
+        for (Ast.Function function : ast.getFunctions()) {
+            calls = new HashSet<>();
+            uses = newVariableSet();
+            String key = function.getName() + "/" + function.getParameters().size();
+            functions.put(key, (Ast.Function) visit(function));
+            callGraph.put(key, calls);
+            functionUses.put(key, uses);
+        }
+
+        if (!functions.containsKey("main/0")) {
+            return new Ast.Source(globals, new ArrayList<>(functions.values()));
+        }
+
+        Set<String> reachable = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(Arrays.asList("main/0"));
+        while (!pending.isEmpty()) {
+            String key = pending.pop();
+            if (functions.containsKey(key) && reachable.add(key)) {
+                pending.addAll(callGraph.get(key));
+            }
+        }
+
+        List<Ast.Function> reachableFunctions = new ArrayList<>();
+        Set<Environment.Variable> used = newVariableSet();
+        for (Map.Entry<String, Ast.Function> entry : functions.entrySet()) {
+            if (reachable.contains(entry.getKey())) {
+                reachableFunctions.add(entry.getValue());
+                used.addAll(functionUses.get(entry.getKey()));
+            }
+        }
+
+        // initializers only refer to earlier globals, so walking backwards sees every use
+        LinkedList<Ast.Global> usedGlobals = new LinkedList<>();
+        for (int i = globals.size() - 1; i >= 0; i--) {
+            if (used.contains(globals.get(i).getVariable())) {
+                usedGlobals.addFirst(globals.get(i));
+                used.addAll(globalUses.get(i));
+            }
+        }
+        return new Ast.Source(new ArrayList<>(usedGlobals), reachableFunctions);
+    }
+
+    @Override
+    public Ast visit(Ast.Global ast) {
+        Optional<Ast.Expression> value = optimize(ast.getValue());
+        if (!ast.getMutable() && value.isPresent() && value.get() instanceof Ast.Expression.Literal) {
+            constants.put(ast.getVariable(), (Ast.Expression.Literal) value.get());
+        }
+
+        Ast.Global global = new Ast.Global(ast.getName(), ast.getTypeName(), ast.getMutable(), value);
+        global.setVariable(ast.getVariable());
+        return global;
+    }
+
+    @Override
+    public Ast visit(Ast.Function ast) {
+        Ast.Function function = new Ast.Function(ast.getName(), ast.getParameters(), ast.getParameterTypeNames(),
+                ast.getReturnTypeName(), optimize(ast.getStatements()));
+        function.setFunction(ast.getFunction());
+        function.setPure(ast.getPure());
+        function.setFrameSize(ast.getFrameSize());
+        return function;
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Expression ast) {
+        return new Ast.Statement.Expression(optimize(ast.getExpression()));
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Declaration ast) {
+        Ast.Statement.Declaration declaration = new Ast.Statement.Declaration(ast.getName(), ast.getTypeName(), optimize(ast.getValue()));
+        declaration.setVariable(ast.getVariable());
+        return declaration;
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Assignment ast) {
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        Ast.Expression.Access access = new Ast.Expression.Access(optimize(receiver.getOffset()), receiver.getName());
+        access.setVariable(receiver.getVariable());
+        uses.add(receiver.getVariable());
+        return new Ast.Statement.Assignment(access, optimize(ast.getValue()));
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.If ast) {
+        Ast.Statement.If _if = new Ast.Statement.If(optimize(ast.getCondition()), optimize(ast.getThenStatements()), optimize(ast.getElseStatements()));
+        _if.setScoped(ast.getScoped());
+        return _if;
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Switch ast) {
+        List<Ast.Statement.Case> cases = new ArrayList<>();
+        for (Ast.Statement.Case _case : ast.getCases()) {
+            cases.add((Ast.Statement.Case) visit(_case));
+        }
+        return new Ast.Statement.Switch(optimize(ast.getCondition()), cases);
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Case ast) {
+        Ast.Statement.Case _case = new Ast.Statement.Case(optimize(ast.getValue()), optimize(ast.getStatements()));
+        _case.setScoped(ast.getScoped());
+        return _case;
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.While ast) {
+        Ast.Statement.While _while = new Ast.Statement.While(optimize(ast.getCondition()), optimize(ast.getStatements()));
+        _while.setScoped(ast.getScoped());
+        return _while;
+    }
+
+    @Override
+    public Ast visit(Ast.Statement.Return ast) {
+        Ast.Expression value = optimize(ast.getValue());
+        Ast.Statement.Return _return = new Ast.Statement.Return(value);
+        // a folded call is no longer a tail call
+        _return.setTail(ast.getTail() && value instanceof Ast.Expression.Function);
+        return _return;
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Literal ast) {
+        Ast.Expression.Literal literal = new Ast.Expression.Literal(ast.getLiteral());
+        literal.setType(ast.getType());
+        return literal;
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Group ast) {
+        Ast.Expression expression = optimize(ast.getExpression());
+        if (expression instanceof Ast.Expression.Literal) {
+            return expression;
+        }
+
+        Ast.Expression.Group group = new Ast.Expression.Group(expression);
+        group.setType(ast.getType());
+        return group;
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Binary ast) {
+        Ast.Expression left = optimize(ast.getLeft());
+        Ast.Expression right = optimize(ast.getRight());
+        Ast.Expression.Binary binary = new Ast.Expression.Binary(ast.getOperator(), left, right);
+        binary.setType(ast.getType());
+        binary.setPrimitive(ast.getPrimitive());
+
+        // a short circuited right side is never evaluated, so it may be anything
+        boolean shortCircuit = left instanceof Ast.Expression.Literal && (
+                (ast.getOperator().equals("&&") && Boolean.FALSE.equals(((Ast.Expression.Literal) left).getLiteral())) ||
+                (ast.getOperator().equals("||") && Boolean.TRUE.equals(((Ast.Expression.Literal) left).getLiteral())));
+        if (!shortCircuit && !(left instanceof Ast.Expression.Literal && right instanceof Ast.Expression.Literal)) {
+            return binary;
+        }
+
+        Object value;
+        try {
+            value = interpreter.visit(binary).getValue();
+        } catch (RuntimeException e) {
+            return binary;
+        }
+        // folding must not produce integers the generated int code could not hold
+        if (value instanceof BigInteger && ((BigInteger) value).bitLength() > 31) {
+            return binary;
+        }
+
+        Ast.Expression.Literal literal = new Ast.Expression.Literal(value);
+        literal.setType(ast.getType());
+        return literal;
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Access ast) {
+        if (!ast.getOffset().isPresent() && constants.containsKey(ast.getVariable())) {
+            return visit(constants.get(ast.getVariable()));
+        }
+
+        Ast.Expression.Access access = new Ast.Expression.Access(optimize(ast.getOffset()), ast.getName());
+        access.setVariable(ast.getVariable());
+        uses.add(ast.getVariable());
+        return access;
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.Function ast) {
+        List<Ast.Expression> arguments = new ArrayList<>();
+        for (Ast.Expression argument : ast.getArguments()) {
+            arguments.add(optimize(argument));
+        }
+
+        Ast.Expression.Function function = new Ast.Expression.Function(ast.getName(), arguments);
+        function.setFunction(ast.getFunction());
+        calls.add(ast.getName() + "/" + arguments.size());
+        return function;
+    }
+
+    @Override
+    public Ast visit(Ast.Expression.PlcList ast) {
+        List<Ast.Expression> values = new ArrayList<>();
+        for (Ast.Expression value : ast.getValues()) {
+            values.add(optimize(value));
+        }
+
+        Ast.Expression.PlcList list = new Ast.Expression.PlcList(values);
+        list.setType(ast.getType());
+        return list;
+    }
+
+    private Ast.Expression optimize(Ast.Expression expression) {
+        return (Ast.Expression) visit(expression);
+    }
+
+    private Optional<Ast.Expression> optimize(Optional<Ast.Expression> expression) {
+        return expression.map(this::optimize);
+    }
+
+    private List<Ast.Statement> optimize(List<Ast.Statement> statements) {
+        List<Ast.Statement> optimized = new ArrayList<>();
+        for (Ast.Statement statement : statements) {
+            if (append(optimized, (Ast.Statement) visit(statement))) break;
+        }
+        return optimized;
+    }
+
+    /**
+     * Appends an optimized statement to a block, dropping or splicing it when
+     * its effect is known. Returns {@code true} once the block has returned,
+     * after which any remaining statements are unreachable.
+     */
+    private boolean append(List<Ast.Statement> block, Ast.Statement statement) {
+        if (statement instanceof Ast.Statement.If && ((Ast.Statement.If) statement).getCondition() instanceof Ast.Expression.Literal) {
+            Ast.Statement.If ast = (Ast.Statement.If) statement;
+            List<Ast.Statement> branch = Boolean.TRUE.equals(((Ast.Expression.Literal) ast.getCondition()).getLiteral())
+                    ? ast.getThenStatements() : ast.getElseStatements();
+            if (branch.stream().anyMatch(s -> s instanceof Ast.Statement.Declaration)) {
+                // the branch keeps its own scope so its declarations cannot clash with the block's
+                Ast.Expression.Literal condition = new Ast.Expression.Literal(true);
+                condition.setType(Environment.Type.BOOLEAN);
+                block.add(new Ast.Statement.If(condition, branch, new ArrayList<>()));
+                return branch.get(branch.size() - 1) instanceof Ast.Statement.Return;
+            }
+            for (Ast.Statement nested : branch) {
+                if (append(block, nested)) return true;
+            }
+            return false;
+        }
+        if (statement instanceof Ast.Statement.While && Boolean.FALSE.equals(literal(((Ast.Statement.While) statement).getCondition()))) {
+            return false;
+        }
+
+        block.add(statement);
+        return statement instanceof Ast.Statement.Return;
+    }
+
+    private static Object literal(Ast.Expression expression) {
+        return expression instanceof Ast.Expression.Literal ? ((Ast.Expression.Literal) expression).getLiteral() : null;
+    }
+
+    private static Set<Environment.Variable> newVariableSet() {
+        return Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+
+}
@@ -0,0 +1,482 @@
+package plc.project;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Computes the range of values every {@code Integer} expression can take and
+ * marks the {@code +}, {@code -}, {@code *} and {@code /} expressions whose
+ * operands and result are proven to fit in a {@code long} as primitive (see
+ * {@link Ast.Expression.Binary#getPrimitive()}). Must run on an analyzed AST.
+ *
+ * Ranges are tracked per local variable through declarations, assignments and
+ * branches. Conditions of the form {@code x < e}, {@code x > e} and
+ * {@code x == e} narrow the range of {@code x} inside the guarded block, which
+ * is what bounds typical loop counters. Loops are iterated until stable, with
+ * bounds that keep growing widened to infinity after a few rounds and then
+ * narrowed again by one more pass over the body.
+ */
+public final class RangeAnalyzer implements Ast.Visitor<RangeAnalyzer.Range> {
+
+    private static final int WIDENING_DELAY = 3;
+    private static final Range LONG = new Range(BigInteger.valueOf(Long.MIN_VALUE), BigInteger.valueOf(Long.MAX_VALUE));
+
+    private Map<Environment.Variable, Range> ranges = new IdentityHashMap<>();
+    private final Set<Environment.Variable> globals = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Environment.Variable, Range> constants = new IdentityHashMap<>();
+    private final Map<Ast.Expression.Binary, Range> sites = new IdentityHashMap<>();
+
+    @Override
+    public Range visit(Ast.Source ast) {
+        for (Ast.Global global : ast.getGlobals()) {
+            visit(global);
+        }
+        for (Ast.Function function : ast.getFunctions()) {
+            visit(function);
+        }
+        annotate();
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Global ast) {
+        globals.add(ast.getVariable());
+        if (ast.getValue().isPresent()) {
+            Range range = visit(ast.getValue().get());
+            if (!ast.getMutable() && ast.getValue().get() instanceof Ast.Expression.Literal) {
+                constants.put(ast.getVariable(), range);
+            }
+        }
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Function ast) {
+        ranges = new IdentityHashMap<>();
+        for (Ast.Statement statement : ast.getStatements()) {
+            visit(statement);
+        }
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Statement.Expression ast) {
+        visit(ast.getExpression());
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Statement.Declaration ast) {
+        Range range = ast.getValue().isPresent() ? visit(ast.getValue().get()) : Range.UNBOUNDED;
+        ranges.put(ast.getVariable(), range);
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Statement.Assignment ast) {
+        Ast.Expression.Access receiver = (Ast.Expression.Access) ast.getReceiver();
+        receiver.getOffset().ifPresent(this::visit);
+        Range range = visit(ast.getValue());
+        if (!receiver.getOffset().isPresent() && !globals.contains(receiver.getVariable())) {
+            ranges.put(receiver.getVariable(), range);
+        }
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Statement.If ast) {
+        Map<Environment.Variable, Range> before = new IdentityHashMap<>(ranges);
+        refine(ast.getCondition(), true);
+        for (Ast.Statement statement : ast.getThenStatements()) {
+            visit(statement);
+        }
+        Map<Environment.Variable, Range> then = ranges;
+
+        ranges = before;
+        refine(ast.getCondition(), false);
+        for (Ast.Statement statement : ast.getElseStatements()) {
+            visit(statement);
+        }
+        ranges = join(then, ranges);
+        return Range.UNBOUNDED;
+    }
+
+    /**
+     * Every case whose value matches runs, one after another, so a case may
+     * start from what any earlier case left as well as from the state before
+     * the switch. The default only runs when no case matched.
+     */
+    @Override
+    public Range visit(Ast.Statement.Switch ast) {
+        visit(ast.getCondition());
+        Map<Environment.Variable, Range> before = ranges;
+        Map<Environment.Variable, Range> reached = before;
+        Map<Environment.Variable, Range> after = null;
+        boolean hasDefault = false;
+        for (Ast.Statement.Case _case : ast.getCases()) {
+            hasDefault |= !_case.getValue().isPresent();
+            ranges = new IdentityHashMap<>(_case.getValue().isPresent() ? reached : before);
+            visit(_case);
+            if (_case.getValue().isPresent()) reached = join(reached, ranges);
+            after = (after == null) ? ranges : join(after, ranges);
+        }
+        if (!hasDefault) after = (after == null) ? before : join(after, before);
+        ranges = after;
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Statement.Case ast) {
+        ast.getValue().ifPresent(this::visit);
+        for (Ast.Statement statement : ast.getStatements()) {
+            visit(statement);
+        }
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Statement.While ast) {
+        Map<Environment.Variable, Range> entry = ranges;
+        Map<Environment.Variable, Range> head = entry;
+        for (int i = 0; ; i++) {
+            Map<Environment.Variable, Range> next = join(entry, iterate(ast, head));
+            next = (i < WIDENING_DELAY) ? next : widen(head, next);
+            if (same(head, next)) break;
+            head = next;
+        }
+        // a single narrowing pass recovers bounds the widening gave up
+        head = join(entry, iterate(ast, head));
+
+        ranges = new IdentityHashMap<>(head);
+        refine(ast.getCondition(), false);
+        return Range.UNBOUNDED;
+    }
+
+    private Map<Environment.Variable, Range> iterate(Ast.Statement.While ast, Map<Environment.Variable, Range> head) {
+        ranges = new IdentityHashMap<>(head);
+        refine(ast.getCondition(), true);
+        for (Ast.Statement statement : ast.getStatements()) {
+            visit(statement);
+        }
+        return ranges;
+    }
+
+    @Override
+    public Range visit(Ast.Statement.Return ast) {
+        visit(ast.getValue());
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Expression.Literal ast) {
+        if (ast.getLiteral() instanceof BigInteger) {
+            return new Range((BigInteger) ast.getLiteral(), (BigInteger) ast.getLiteral());
+        }
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Expression.Group ast) {
+        return visit(ast.getExpression());
+    }
+
+    @Override
+    public Range visit(Ast.Expression.Binary ast) {
+        Range left = visit(ast.getLeft());
+        Range right = visit(ast.getRight());
+        if (ast.getType() != Environment.Type.INTEGER) {
+            return Range.UNBOUNDED;
+        }
+
+        Range result;
+        switch (ast.getOperator()) {
+            case "+":
+                result = left.add(right);
+                break;
+            case "-":
+                result = left.subtract(right);
+                break;
+            case "*":
+                result = left.multiply(right);
+                break;
+            case "/":
+                result = left.divide(right);
+                break;
+            case "^":
+                result = left.power(right);
+                break;
+            default:
+                return Range.UNBOUNDED;
+        }
+        Range hull = left.join(right).join(result);
+        sites.merge(ast, hull, Range::join);
+        return result;
+    }
+
+    @Override
+    public Range visit(Ast.Expression.Access ast) {
+        if (ast.getOffset().isPresent()) {
+            visit(ast.getOffset().get());
+            return Range.UNBOUNDED;
+        }
+        return lookup(ast.getVariable());
+    }
+
+    /**
+     * Globals other than literal constants may be changed by any call, so only
+     * locals (including parameters, which start unbounded) are tracked.
+     */
+    private Range lookup(Environment.Variable variable) {
+        if (globals.contains(variable)) {
+            return constants.getOrDefault(variable, Range.UNBOUNDED);
+        }
+        return ranges.getOrDefault(variable, Range.UNBOUNDED);
+    }
+
+    @Override
+    public Range visit(Ast.Expression.Function ast) {
+        for (Ast.Expression argument : ast.getArguments()) {
+            visit(argument);
+        }
+        return Range.UNBOUNDED;
+    }
+
+    @Override
+    public Range visit(Ast.Expression.PlcList ast) {
+        for (Ast.Expression value : ast.getValues()) {
+            visit(value);
+        }
+        return Range.UNBOUNDED;
+    }
+
+    /**
+     * Evaluates a condition and narrows the ranges of the local variables it
+     * compares, assuming the condition evaluated to {@code truth}.
+     */
+    private void refine(Ast.Expression condition, boolean truth) {
+        if (condition instanceof Ast.Expression.Group) {
+            refine(((Ast.Expression.Group) condition).getExpression(), truth);
+            return;
+        }
+        if (!(condition instanceof Ast.Expression.Binary)) {
+            visit(condition);
+            return;
+        }
+
+        Ast.Expression.Binary binary = (Ast.Expression.Binary) condition;
+        String operator = binary.getOperator();
+        if ((operator.equals("&&") && truth) || (operator.equals("||") && !truth)) {
+            refine(binary.getLeft(), truth);
+            refine(binary.getRight(), truth);
+            return;
+        }
+
+        Range left = visit(binary.getLeft());
+        Range right = visit(binary.getRight());
+        narrow(binary.getLeft(), operator, right, truth);
+        narrow(binary.getRight(), mirror(operator), left, truth);
+    }
+
+    /**
+     * Narrows {@code expression} given that {@code expression operator bound}
+     * evaluated to {@code truth}.
+     */
+    private void narrow(Ast.Expression expression, String operator, Range bound, boolean truth) {
+        if (!(expression instanceof Ast.Expression.Access) || ((Ast.Expression.Access) expression).getOffset().isPresent()) {
+            return;
+        }
+        Environment.Variable variable = ((Ast.Expression.Access) expression).getVariable();
+        if (globals.contains(variable)) {
+            return;
+        }
+        Range range = lookup(variable);
+        if (operator.equals("<")) {
+            range = truth ? range.below(bound.hi, BigInteger.ONE) : range.above(bound.lo, BigInteger.ZERO);
+        } else if (operator.equals(">")) {
+            range = truth ? range.above(bound.lo, BigInteger.ONE) : range.below(bound.hi, BigInteger.ZERO);
+        } else if (operator.equals("==") && truth) {
+            range = range.above(bound.lo, BigInteger.ZERO).below(bound.hi, BigInteger.ZERO);
+        }
+        ranges.put(variable, range);
+    }
+
+    private static String mirror(String operator) {
+        switch (operator) {
+            case "<":
+                return ">";
+            case ">":
+                return "<";
+            default:
+                return operator;
+        }
+    }
+
+    private void annotate() {
+        for (Map.Entry<Ast.Expression.Binary, Range> site : sites.entrySet()) {
+            String operator = site.getKey().getOperator();
+            boolean arithmetic = operator.equals("+") || operator.equals("-") || operator.equals("*") || operator.equals("/");
+            site.getKey().setPrimitive(arithmetic && LONG.contains(site.getValue()));
+        }
+    }
+
+    /**
+     * Joins two states. A variable missing from either state is unbounded
+     * there (or out of scope), so only variables present in both are kept.
+     */
+    private static Map<Environment.Variable, Range> join(Map<Environment.Variable, Range> first, Map<Environment.Variable, Range> second) {
+        Map<Environment.Variable, Range> result = new IdentityHashMap<>();
+        for (Map.Entry<Environment.Variable, Range> entry : first.entrySet()) {
+            if (second.containsKey(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue().join(second.get(entry.getKey())));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compares two states by their ranges, which {@link IdentityHashMap#equals}
+     * would compare by reference.
+     */
+    private static boolean same(Map<Environment.Variable, Range> first, Map<Environment.Variable, Range> second) {
+        if (first.size() != second.size()) return false;
+        for (Map.Entry<Environment.Variable, Range> entry : first.entrySet()) {
+            if (!entry.getValue().equals(second.get(entry.getKey()))) return false;
+        }
+        return true;
+    }
+
+    private static Map<Environment.Variable, Range> widen(Map<Environment.Variable, Range> previous, Map<Environment.Variable, Range> next) {
+        Map<Environment.Variable, Range> result = new IdentityHashMap<>(next);
+        for (Map.Entry<Environment.Variable, Range> entry : next.entrySet()) {
+            Range old = previous.get(entry.getKey());
+            if (old != null) {
+                result.put(entry.getKey(), old.widen(entry.getValue()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * An inclusive range of integers, where a {@code null} bound is infinite.
+     */
+    public static final class Range {
+
+        public static final Range UNBOUNDED = new Range(null, null);
+
+        private final BigInteger lo;
+        private final BigInteger hi;
+
+        public Range(BigInteger lo, BigInteger hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        public Optional<BigInteger> getLo() {
+            return Optional.ofNullable(lo);
+        }
+
+        public Optional<BigInteger> getHi() {
+            return Optional.ofNullable(hi);
+        }
+
+        public boolean contains(Range range) {
+            return range.lo != null && range.hi != null && (lo == null || lo.compareTo(range.lo) <= 0) && (hi == null || hi.compareTo(range.hi) >= 0);
+        }
+
+        private Range join(Range range) {
+            return new Range(lo == null || range.lo == null ? null : lo.min(range.lo), hi == null || range.hi == null ? null : hi.max(range.hi));
+        }
+
+        private Range widen(Range range) {
+            return new Range(lo != null && range.lo != null && range.lo.compareTo(lo) >= 0 ? lo : null,
+                    hi != null && range.hi != null && range.hi.compareTo(hi) <= 0 ? hi : null);
+        }
+
+        private Range below(BigInteger bound, BigInteger gap) {
+            if (bound == null) return this;
+            BigInteger limit = bound.subtract(gap);
+            return new Range(lo, hi == null ? limit : hi.min(limit));
+        }
+
+        private Range above(BigInteger bound, BigInteger gap) {
+            if (bound == null) return this;
+            BigInteger limit = bound.add(gap);
+            return new Range(lo == null ? limit : lo.max(limit), hi);
+        }
+
+        private boolean bounded() {
+            return lo != null && hi != null;
+        }
+
+        private BigInteger magnitude() {
+            return lo.abs().max(hi.abs());
+        }
+
+        private Range add(Range range) {
+            return new Range(lo == null || range.lo == null ? null : lo.add(range.lo), hi == null || range.hi == null ? null : hi.add(range.hi));
+        }
+
+        private Range subtract(Range range) {
+            return new Range(lo == null || range.hi == null ? null : lo.subtract(range.hi), hi == null || range.lo == null ? null : hi.subtract(range.lo));
+        }
+
+        private Range multiply(Range range) {
+            if (!bounded() || !range.bounded()) return UNBOUNDED;
+            return corners(lo.multiply(range.lo), lo.multiply(range.hi), hi.multiply(range.lo), hi.multiply(range.hi));
+        }
+
+        private Range divide(Range range) {
+            if (!bounded()) return UNBOUNDED;
+            if (range.bounded() && (range.lo.signum() > 0 || range.hi.signum() < 0)) {
+                return corners(lo.divide(range.lo), lo.divide(range.hi), hi.divide(range.lo), hi.divide(range.hi));
+            }
+            // the quotient never grows in magnitude, whatever the (non-zero) divisor
+            return new Range(magnitude().negate(), magnitude());
+        }
+
+        private Range power(Range range) {
+            if (!bounded() || !range.bounded() || range.hi.compareTo(BigInteger.valueOf(64)) > 0) return UNBOUNDED;
+            BigInteger magnitude = magnitude().max(BigInteger.ONE);
+            if ((long) magnitude.bitLength() * range.hi.intValue() > 128) return UNBOUNDED;
+            BigInteger bound = magnitude.pow(Math.max(range.hi.intValue(), 1));
+            return new Range(bound.negate(), bound);
+        }
+
+        private static Range corners(BigInteger... values) {
+            BigInteger min = values[0];
+            BigInteger max = values[0];
+            for (BigInteger value : values) {
+                min = min.min(value);
+                max = max.max(value);
+            }
+            return new Range(min, max);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Range &&
+                    Objects.equals(lo, ((Range) obj).lo) &&
+                    Objects.equals(hi, ((Range) obj).hi);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(lo, hi);
+        }
+
+        @Override
+        public String toString() {
+            return "Range{" +
+                    "lo=" + lo +
+                    ", hi=" + hi +
+                    '}';
+        }
+
+    }
+
+}
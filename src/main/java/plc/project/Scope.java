@@ -1,9 +1,13 @@
 package plc.project;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.lang.ref.WeakReference;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 public final class Scope {
@@ -12,6 +16,13 @@ public final class Scope {
     private final Map<String, Environment.Variable> variables = new HashMap<>();
     private final Map<String, Environment.Function> functions = new HashMap<>();
 
+    /**
+     * Counts the function definitions and removals in this scope, so a
+     * {@link CallCache} can tell whether what it resolved may have changed.
+     */
+    private volatile int version;
+    private Owner owner;
+
     public Scope(Scope parent) {
         this.parent = parent;
     }
@@ -35,15 +46,39 @@ public final class Scope {
     }
 
     public Environment.Variable lookupVariable(String name) {
+        return findVariable(name).orElseThrow(() -> new RuntimeException("The variable " + name + " is not defined in this scope."));
+    }
+
+    /**
+     * Looks up a variable like {@link #lookupVariable(String)}, but returns an
+     * empty optional instead of throwing when it is not defined.
+     */
+    public Optional<Environment.Variable> findVariable(String name) {
         if (variables.containsKey(name)) {
-            return variables.get(name);
+            return Optional.of(variables.get(name));
         } else if (parent != null) {
-            return parent.lookupVariable(name);
+            return parent.findVariable(name);
         } else {
-            throw new RuntimeException("The variable " + name + " is not defined in this scope.");
+            return Optional.empty();
         }
     }
 
+    /**
+     * Returns whether the variable is defined in this scope itself, ignoring
+     * its parents.
+     */
+    public boolean definesVariable(String name) {
+        return variables.containsKey(name);
+    }
+
+    /**
+     * Removes the variables defined in this scope itself, so a loop can run
+     * its body again in the same scope.
+     */
+    public void clearVariables() {
+        variables.clear();
+    }
+
     public void defineFunction(String name, int arity, Function<List<Environment.PlcObject>, Environment.PlcObject> function) {
         List<Environment.Type> parameterTypes = new ArrayList<>();
         for (int i = 0; i < arity; i++) {
@@ -57,19 +92,67 @@ public final class Scope {
             throw new RuntimeException("The function " + name + "/" + parameterTypes.size() + " is already defined in this scope.");
         } else {
             Environment.Function func = new Environment.Function(name, jvmName, parameterTypes, returnType, function);
+            // the scopes below no longer skip over this one to find their functions
+            if (functions.isEmpty() && parent != null) parent.definingScope().version++;
             functions.put(func.getName() + "/" + func.getParameterTypes().size(), func);
+            version++;
             return func;
         }
     }
 
+    public void removeFunction(String name, int arity) {
+        if (functions.remove(name + "/" + arity) == null) {
+            throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
+        }
+        version++;
+    }
+
     public Environment.Function lookupFunction(String name, int arity) {
+        return findFunction(name, arity).orElseThrow(() -> new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope."));
+    }
+
+    /**
+     * Looks up a function like {@link #lookupFunction(String, int)}, but
+     * returns an empty optional instead of throwing when it is not defined.
+     */
+    public Optional<Environment.Function> findFunction(String name, int arity) {
         if (functions.containsKey(name + "/" + arity)) {
-            return functions.get(name + "/" + arity);
+            return Optional.of(functions.get(name + "/" + arity));
         } else if (parent != null) {
-            return parent.lookupFunction(name, arity);
+            return parent.findFunction(name, arity);
         } else {
-            throw new RuntimeException("The function " + name + "/" + arity + " is not defined in this scope.");
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns whether the function is defined in this scope itself, ignoring
+     * its parents.
+     */
+    public boolean definesFunction(String name, int arity) {
+        return functions.containsKey(name + "/" + arity);
+    }
+
+    /**
+     * Returns the nearest scope, starting with this one, that defines any
+     * function. Looking up a function from either gives the same result. The
+     * scope found is remembered until its version changes, which it also does
+     * when a scope in between defines its first function.
+     */
+    private Scope functionScope() {
+        Owner owner = this.owner;
+        if (owner != null && owner.scope.version == owner.version) return owner.scope;
+        Scope scope = definingScope();
+        this.owner = new Owner(scope, scope.version);
+        return scope;
+    }
+
+    private Scope definingScope() {
+        Scope scope = this;
+        while (scope.functions.isEmpty() && scope.parent != null) {
+            scope = scope.parent;
         }
+        return scope;
     }
 
     @Override
@@ -81,4 +164,120 @@ public final class Scope {
                 '}';
     }
 
+    private static final class Owner {
+
+        private final Scope scope;
+        private final int version;
+
+        private Owner(Scope scope, int version) {
+            this.scope = scope;
+            this.version = version;
+        }
+
+    }
+
+    /**
+     * A polymorphic inline cache for one call site, remembering the function
+     * the call resolved to from up to four different scopes. Scopes that
+     * define no functions are skipped over first, so the block and call
+     * scopes the interpreter creates share an entry. An entry is only used
+     * while the versions of the scopes from its own up to the one defining
+     * the function are unchanged, and holds its scope weakly so that a cached
+     * call site does not keep finished programs alive.
+     */
+    public static final class CallCache {
+
+        private static final int SIZE = 4;
+
+        private final String name;
+        private final int arity;
+        private volatile Entry[] entries = new Entry[0];
+        private final AtomicInteger misses = new AtomicInteger();
+
+        public CallCache(String name, int arity) {
+            this.name = name;
+            this.arity = arity;
+        }
+
+        /**
+         * Looks up the function like {@link Scope#lookupFunction(String, int)},
+         * without building or hashing its key when the scope is cached. Safe
+         * to call from several threads; entries are replaced, never changed.
+         */
+        public Environment.Function lookup(Scope scope) {
+            Scope owner = scope.functionScope();
+            Entry[] current = entries;
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                Scope cached = current[i].owner.get();
+                if (cached == owner) {
+                    if (current[i].isCurrent(owner)) return current[i].function;
+                    index = i;
+                } else if (cached == null && index < 0) {
+                    index = i;
+                }
+            }
+
+            Environment.Function function = owner.lookupFunction(name, arity);
+            int depth = 0;
+            for (Scope defining = owner; !defining.definesFunction(name, arity); defining = defining.parent) {
+                depth++;
+            }
+            int[] versions = new int[depth + 1];
+            Scope defining = owner;
+            for (int i = 0; i <= depth; i++, defining = defining.parent) {
+                versions[i] = defining.version;
+            }
+
+            // stale and collected entries are replaced first, and once full the others in turn
+            Entry[] replaced = current;
+            if (index < 0 && current.length < SIZE) {
+                index = current.length;
+                replaced = Arrays.copyOf(current, current.length + 1);
+            } else {
+                if (index < 0) index = Math.floorMod(misses.get(), SIZE);
+                replaced = current.clone();
+            }
+            replaced[index] = new Entry(owner, versions, function);
+            entries = replaced;
+            misses.incrementAndGet();
+            return function;
+        }
+
+        /**
+         * The number of lookups that were not answered from the cache.
+         */
+        public int getMisses() {
+            return misses.get();
+        }
+
+        private static final class Entry {
+
+            private final WeakReference<Scope> owner;
+            private final int[] versions;
+            private final Environment.Function function;
+
+            private Entry(Scope owner, int[] versions, Environment.Function function) {
+                this.owner = new WeakReference<>(owner);
+                this.versions = versions;
+                this.function = function;
+            }
+
+            /**
+             * Returns whether no scope from the owner up to the one defining
+             * the function has changed its functions since.
+             */
+            private boolean isCurrent(Scope owner) {
+                Scope scope = owner;
+                for (int version : versions) {
+                    if (scope.version != version) return false;
+                    scope = scope.parent;
+                }
+                return true;
+            }
+
+        }
+
+    }
+
 }
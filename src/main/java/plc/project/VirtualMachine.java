@@ -0,0 +1,231 @@
+package plc.project;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Runs {@link Bytecode} in a single dispatch loop. Calls do not recurse on the
+ * Java stack: the caller's function, position and registers are pushed onto
+ * an explicit call stack and restored when the callee returns. The call stack
+ * grows as needed, so recursion is only limited by {@link #setStackLimit(int)}.
+ */
+public final class VirtualMachine {
+
+    private static final Object NIL = Environment.NIL.getValue();
+
+    private Bytecode.Function[] callers = new Bytecode.Function[16];
+    private int[] positions = new int[16];
+    private Object[][] frames = new Object[16][];
+    private int depth = 0;
+    private long stackSize = 0;
+    private int stackLimit = 1 << 24;
+    private Interpreter.Sink sink = Interpreter.Sink.standard();
+
+    /**
+     * Sets the number of registers the frames of the calls in progress may
+     * hold in total before running fails with "Stack limit exceeded!", which
+     * bounds the memory the call stack takes whatever the size of each frame.
+     * About sixteen million by default.
+     */
+    public void setStackLimit(int stackLimit) {
+        this.stackLimit = stackLimit;
+    }
+
+    /**
+     * Sets where {@code print} writes, standard output by default, as with
+     * {@link Interpreter#setSink}. The sink is flushed when main returns or
+     * fails.
+     */
+    public void setSink(Interpreter.Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Initializes the globals and returns the result of calling main.
+     */
+    public Object run(Bytecode program) {
+        Object[] globals = new Object[program.getGlobals()];
+        try {
+            execute(program, globals, program.getInitializer());
+            return execute(program, globals, program.getMain());
+        } finally {
+            sink.flush();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object execute(Bytecode program, Object[] globals, int entry) {
+        Object[] constants = program.getConstants();
+        List<Bytecode.Function> functions = program.getFunctions();
+        Bytecode.Function function = functions.get(entry);
+        int[] code = function.getCode();
+        Object[] registers = new Object[function.getRegisters()];
+        int pc = 0;
+        depth = 0;
+        stackSize = 0;
+
+        while (true) {
+            switch (code[pc]) {
+                case Bytecode.LOAD_CONST:
+                    registers[code[pc + 1]] = constants[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case Bytecode.MOVE:
+                    registers[code[pc + 1]] = registers[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case Bytecode.LOAD_GLOBAL:
+                    registers[code[pc + 1]] = globals[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case Bytecode.STORE_GLOBAL:
+                    globals[code[pc + 1]] = registers[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case Bytecode.LOAD_ELEMENT: {
+                    List<Object> list = (List<Object>) registers[code[pc + 2]];
+                    int index = ((BigInteger) registers[code[pc + 3]]).intValueExact();
+                    if (index >= list.size()) throw new RuntimeException("Index out of range!");
+                    registers[code[pc + 1]] = list.get(index);
+                    pc += 4;
+                    break;
+                }
+                case Bytecode.STORE_ELEMENT:
+                    ((List<Object>) registers[code[pc + 1]]).set(((BigInteger) registers[code[pc + 2]]).intValueExact(), registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.ADD_INT:
+                    registers[code[pc + 1]] = ((BigInteger) registers[code[pc + 2]]).add((BigInteger) registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.SUBTRACT_INT:
+                    registers[code[pc + 1]] = ((BigInteger) registers[code[pc + 2]]).subtract((BigInteger) registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.MULTIPLY_INT:
+                    registers[code[pc + 1]] = ((BigInteger) registers[code[pc + 2]]).multiply((BigInteger) registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.DIVIDE_INT:
+                    registers[code[pc + 1]] = ((BigInteger) registers[code[pc + 2]]).divide((BigInteger) registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.POWER:
+                    registers[code[pc + 1]] = Interpreter.power((BigInteger) registers[code[pc + 2]], (BigInteger) registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.ADD_DECIMAL:
+                    registers[code[pc + 1]] = ((BigDecimal) registers[code[pc + 2]]).add((BigDecimal) registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.SUBTRACT_DECIMAL:
+                    registers[code[pc + 1]] = ((BigDecimal) registers[code[pc + 2]]).subtract((BigDecimal) registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.MULTIPLY_DECIMAL:
+                    registers[code[pc + 1]] = ((BigDecimal) registers[code[pc + 2]]).multiply((BigDecimal) registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.DIVIDE_DECIMAL:
+                    registers[code[pc + 1]] = ((BigDecimal) registers[code[pc + 2]]).divide((BigDecimal) registers[code[pc + 3]], RoundingMode.HALF_EVEN);
+                    pc += 4;
+                    break;
+                case Bytecode.CONCATENATE:
+                    registers[code[pc + 1]] = registers[code[pc + 2]].toString() + registers[code[pc + 3]].toString();
+                    pc += 4;
+                    break;
+                case Bytecode.LESS:
+                    registers[code[pc + 1]] = ((Comparable<Object>) registers[code[pc + 2]]).compareTo(registers[code[pc + 3]]) < 0;
+                    pc += 4;
+                    break;
+                case Bytecode.GREATER:
+                    registers[code[pc + 1]] = ((Comparable<Object>) registers[code[pc + 2]]).compareTo(registers[code[pc + 3]]) > 0;
+                    pc += 4;
+                    break;
+                case Bytecode.EQUAL:
+                    registers[code[pc + 1]] = Objects.equals(registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.NOT_EQUAL:
+                    registers[code[pc + 1]] = !Objects.equals(registers[code[pc + 2]], registers[code[pc + 3]]);
+                    pc += 4;
+                    break;
+                case Bytecode.JUMP:
+                    pc = code[pc + 1];
+                    break;
+                case Bytecode.JUMP_IF_FALSE:
+                    pc = (Boolean) registers[code[pc + 1]] ? pc + 3 : code[pc + 2];
+                    break;
+                case Bytecode.JUMP_IF_TRUE:
+                    pc = (Boolean) registers[code[pc + 1]] ? code[pc + 2] : pc + 3;
+                    break;
+                case Bytecode.CALL: {
+                    Bytecode.Function callee = functions.get(code[pc + 2]);
+                    Object[] frame = new Object[callee.getRegisters()];
+                    System.arraycopy(registers, code[pc + 3], frame, 0, code[pc + 4]);
+                    push(function, pc, registers);
+                    function = callee;
+                    code = callee.getCode();
+                    registers = frame;
+                    pc = 0;
+                    break;
+                }
+                case Bytecode.PRINT:
+                    sink.print(String.valueOf(registers[code[pc + 2]]));
+                    registers[code[pc + 1]] = NIL;
+                    pc += 3;
+                    break;
+                case Bytecode.RETURN: {
+                    Object value = registers[code[pc + 1]];
+                    if (depth == 0) return value;
+                    depth--;
+                    stackSize -= frames[depth].length;
+                    function = callers[depth];
+                    code = function.getCode();
+                    registers = frames[depth];
+                    frames[depth] = null;
+                    pc = positions[depth];
+                    // the caller's CALL names the register receiving the result
+                    registers[code[pc + 1]] = value;
+                    pc += 5;
+                    break;
+                }
+                case Bytecode.LIST: {
+                    List<Object> list = new ArrayList<>(code[pc + 3]);
+                    for (int i = 0; i < code[pc + 3]; i++) {
+                        list.add(registers[code[pc + 2] + i]);
+                    }
+                    registers[code[pc + 1]] = list;
+                    pc += 4;
+                    break;
+                }
+                case Bytecode.FAIL:
+                    throw new RuntimeException((String) constants[code[pc + 1]]);
+                default:
+                    throw new IllegalStateException("Invalid opcode " + code[pc] + " at " + pc + ".");
+            }
+        }
+    }
+
+    private void push(Bytecode.Function function, int pc, Object[] registers) {
+        if (stackSize + registers.length > stackLimit) {
+            throw new RuntimeException("Stack limit exceeded!");
+        }
+        if (depth == callers.length) {
+            callers = Arrays.copyOf(callers, depth * 2);
+            positions = Arrays.copyOf(positions, depth * 2);
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+        callers[depth] = function;
+        positions[depth] = pc;
+        frames[depth] = registers;
+        stackSize += registers.length;
+        depth++;
+    }
+
+}
@@ -1,6 +1,7 @@
 package plc.project;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
@@ -9,8 +10,14 @@ import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -71,6 +78,176 @@ public final class AnalyzerTests {
         );
     }
 
+    @Test
+    public void testForwardCall() {
+        // FUN main(): Integer DO RETURN next(1); END FUN next(x: Integer): Integer DO RETURN x + 1; END
+        Ast.Source ast = parse("FUN main(): Integer DO RETURN next(1); END FUN next(x: Integer): Integer DO RETURN x + 1; END");
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        analyzer.visit(ast);
+        Assertions.assertEquals(Arrays.asList(Environment.Type.INTEGER), analyzer.scope.lookupFunction("next", 1).getParameterTypes());
+        Ast.Statement.Return statement = (Ast.Statement.Return) ast.getFunctions().get(0).getStatements().get(0);
+        Assertions.assertEquals(Environment.Type.INTEGER, statement.getValue().getType());
+    }
+
+    @Test
+    public void testParallelFunctions() {
+        // many functions force the parallel phase, the first invalid body in source order is reported
+        StringBuilder source = new StringBuilder("FUN main(): Integer DO RETURN f0(0); END");
+        for (int i = 0; i < 500; i++) {
+            String body = (i == 300) ? "RETURN 1.0;" : (i == 400) ? "RETURN y;" : "RETURN f" + (i + 1) + "(x) + 1;";
+            source.append(" FUN f").append(i).append("(x: Integer): Integer DO ").append(body).append(" END");
+        }
+        source.append(" FUN f500(x: Integer): Integer DO RETURN x; END");
+        Ast.Source ast = parse(source.toString());
+        for (int run = 0; run < 5; run++) {
+            RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> new Analyzer(new Scope(null)).visit(ast));
+            Assertions.assertEquals("Invalid Types!", exception.getMessage());
+        }
+
+        Ast.Source valid = parse(source.toString().replace("RETURN 1.0;", "RETURN x;").replace("RETURN y;", "RETURN x;"));
+        new Analyzer(new Scope(null)).visit(valid);
+        valid.getFunctions().forEach(fun -> Assertions.assertEquals(Environment.Type.INTEGER, fun.getFunction().getReturnType()));
+    }
+
+    @Test
+    public void testReanalyze() {
+        // VAL limit: Integer = 10; FUN main(): Integer DO RETURN helper(1); END FUN helper(x: Integer): Integer DO RETURN x + limit; END
+        Ast.Source ast = parse("VAL limit: Integer = 10; FUN main(): Integer DO RETURN helper(1); END FUN helper(x: Integer): Integer DO RETURN x + limit; END");
+        Analyzer analyzer = new Analyzer(new Scope(null));
+        analyzer.visit(ast);
+        Assertions.assertEquals(new LinkedHashSet<>(Arrays.asList("helper/1")), analyzer.getDependencies().get("main/0").getFunctions());
+        Assertions.assertEquals(new LinkedHashSet<>(Arrays.asList("limit")), analyzer.getDependencies().get("helper/1").getGlobals());
+
+        // same signature: the resolved functions are kept as they are
+        Ast.Function main = ast.getFunctions().get(0);
+        Environment.Function mainFunction = main.getFunction();
+        Environment.Function helperFunction = ast.getFunctions().get(1).getFunction();
+        analyzer.reanalyze(ast, 1, parse("FUN helper(x: Integer): Integer DO RETURN x * 2; END").getFunctions().get(0));
+        Assertions.assertSame(helperFunction, ast.getFunctions().get(1).getFunction());
+        Assertions.assertSame(mainFunction, main.getFunction());
+        Assertions.assertTrue(analyzer.getDependencies().get("helper/1").getGlobals().isEmpty());
+
+        // changed signature: callers are checked again
+        Ast.Function decimal = parse("FUN helper(x: Integer): Decimal DO RETURN 1.0; END").getFunctions().get(0);
+        Assertions.assertThrows(RuntimeException.class, () -> analyzer.reanalyze(ast, 1, decimal));
+    }
+
+    @Test
+    public void testPurity() {
+        Ast.Source ast = parse("VAL limit: Integer = 10; VAR count: Integer = 0; " +
+                "FUN fib(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END " +
+                "FUN bounded(n: Integer): Integer DO RETURN fib(n) + limit; END " +
+                "FUN counted(): Integer DO RETURN count; END " +
+                "FUN increment(): Integer DO count = count + 1; RETURN count; END " +
+                "FUN logged(n: Integer): Integer DO print(n); RETURN n; END " +
+                "FUN caller(n: Integer): Integer DO RETURN logged(n); END " +
+                "FUN main(): Integer DO RETURN bounded(1); END");
+        new Analyzer(new Scope(null)).visit(ast);
+        Assertions.assertEquals(Arrays.asList(true, true, false, false, false, false, true),
+                ast.getFunctions().stream().map(Ast.Function::getPure).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testTailCalls() {
+        Ast.Source ast = parse("FUN f(n: Integer): Integer DO IF n < 1 DO RETURN g(n); END IF n < 2 DO RETURN f(n - 1) + 1; END RETURN f(n - 1); END " +
+                "FUN g(n: Integer): Integer DO RETURN n; END FUN main(): Integer DO RETURN f(3); END");
+        new Analyzer(new Scope(null)).visit(ast);
+        List<Ast.Statement> statements = ast.getFunctions().get(0).getStatements();
+        Assertions.assertFalse(((Ast.Statement.Return) ((Ast.Statement.If) statements.get(0)).getThenStatements().get(0)).getTail());
+        Assertions.assertFalse(((Ast.Statement.Return) ((Ast.Statement.If) statements.get(1)).getThenStatements().get(0)).getTail());
+        Assertions.assertTrue(((Ast.Statement.Return) statements.get(2)).getTail());
+    }
+
+    @Test
+    public void testScopedBlocks() {
+        Ast.Source ast = parse("FUN main(): Integer DO LET i = 0; " +
+                "WHILE i < 3 DO LET j = i; IF j > 1 DO i = i + 1; ELSE LET k = j; i = k + 1; END END " +
+                "WHILE i < 6 DO i = i + 1; END " +
+                "SWITCH i CASE 6: LET k = 1; DEFAULT i = 0; " +
+                "RETURN i; END");
+        new Analyzer(new Scope(null)).visit(ast);
+        List<Ast.Statement> statements = ast.getFunctions().get(0).getStatements();
+        Ast.Statement.While declaring = (Ast.Statement.While) statements.get(1);
+        Assertions.assertTrue(declaring.getScoped());
+        Assertions.assertTrue(((Ast.Statement.If) declaring.getStatements().get(1)).getScoped());
+        Assertions.assertFalse(((Ast.Statement.While) statements.get(2)).getScoped());
+        List<Ast.Statement.Case> cases = ((Ast.Statement.Switch) statements.get(3)).getCases();
+        Assertions.assertTrue(cases.get(0).getScoped());
+        Assertions.assertFalse(cases.get(1).getScoped());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void testDiagnostics(String test, String input, List<String> expected) {
+        Analyzer analyzer = new Analyzer(new Scope(null), true);
+        analyzer.visit(parse(input));
+        Assertions.assertEquals(expected, analyzer.getDiagnostics().stream().map(Analyzer.Diagnostic::getMessage).collect(Collectors.toList()));
+    }
+
+    private static Stream<Arguments> testDiagnostics() {
+        return Stream.of(
+                Arguments.of("Valid", "FUN main(): Integer DO RETURN 0; END", Arrays.asList()),
+                Arguments.of("Every Error",
+                        "VAR x: Boolean = 1; FUN main(): Integer DO LET y: Integer = 1.0; IF 1 DO print(y); END RETURN \"\"; END",
+                        Arrays.asList("Invalid Types!", "Invalid Types!", "If statement condition is not of type Boolean!", "Invalid Types!")),
+                // the undefined variable is reported once, not again by the expressions using it
+                Arguments.of("Poisoned Expression",
+                        "FUN main(): Integer DO LET y: Integer = (z + 1) * 2; RETURN y + z; END",
+                        Arrays.asList("The variable z is not defined in this scope.", "The variable z is not defined in this scope.")),
+                Arguments.of("Undefined Function", "FUN main(): Integer DO RETURN f(1.0) - 1; END",
+                        Arrays.asList("The function f/1 is not defined in this scope.")),
+                Arguments.of("Unknown Type", "VAR x: Number = 1; FUN main(): Integer DO RETURN x; END",
+                        Arrays.asList("Unknown type Number.")),
+                Arguments.of("Redefinition", "FUN f(x: Integer, x: Integer) DO END FUN f(y: Integer, z: Integer) DO END FUN main(): Decimal DO RETURN 0.0; END",
+                        Arrays.asList("The function f/2 is already defined in this scope.", "The variable x is already defined in this scope.",
+                                "Main function does not have Integer return type!"))
+        );
+    }
+
+    @Test
+    public void testParallelDiagnostics() {
+        // diagnostics of the parallel phase are reported in source order
+        StringBuilder source = new StringBuilder("FUN main(): Integer DO RETURN 0; END");
+        for (int i = 0; i < 100; i++) {
+            source.append(" FUN f").append(i).append("(): Integer DO RETURN v").append(i).append("; END");
+        }
+        Analyzer analyzer = new Analyzer(new Scope(null), true);
+        analyzer.visit(parse(source.toString()));
+        Assertions.assertEquals(IntStream.range(0, 100).mapToObj(i -> "The variable v" + i + " is not defined in this scope.").collect(Collectors.toList()),
+                analyzer.getDiagnostics().stream().map(Analyzer.Diagnostic::getMessage).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testDiagnosticHashing() {
+        // the same errors found in two copies of a source are equal, and hash alike
+        Set<Analyzer.Diagnostic> diagnostics = new HashSet<>();
+        for (int i = 0; i < 2; i++) {
+            Analyzer analyzer = new Analyzer(new Scope(null), true);
+            analyzer.visit(parse("FUN main(): Integer DO LET y: Integer = 1.0; RETURN \"\"; END"));
+            diagnostics.addAll(analyzer.getDiagnostics());
+        }
+        Assertions.assertEquals(2, diagnostics.size());
+    }
+
+    @Test
+    public void testReanalyzeDiagnostics() {
+        Ast.Source ast = parse("FUN main(): Integer DO RETURN f(); END FUN f(): Integer DO RETURN \"bad\"; END");
+        Analyzer analyzer = new Analyzer(new Scope(null), true);
+        analyzer.visit(ast);
+        Assertions.assertEquals(1, analyzer.getDiagnostics().size());
+
+        // the errors of the replaced function are dropped
+        analyzer.reanalyze(ast, 1, parse("FUN f(): Integer DO RETURN 1; END").getFunctions().get(0));
+        Assertions.assertEquals(Arrays.asList(), analyzer.getDiagnostics());
+
+        // as are those of the callers checked again
+        analyzer.reanalyze(ast, 1, parse("FUN f(): Decimal DO RETURN 1.0; END").getFunctions().get(0));
+        Assertions.assertEquals(Arrays.asList("Invalid Types!"),
+                analyzer.getDiagnostics().stream().map(Analyzer.Diagnostic::getMessage).collect(Collectors.toList()));
+        analyzer.reanalyze(ast, 1, parse("FUN f(): Integer DO RETURN 1; END").getFunctions().get(0));
+        Assertions.assertEquals(Arrays.asList(), analyzer.getDiagnostics());
+    }
+
     @ParameterizedTest(name = "{0}")
     @MethodSource
     public void testGlobal(String test, Ast.Global ast, Ast.Global expected) {
@@ -563,6 +740,10 @@ public final class AnalyzerTests {
         return analyzer;
     }
 
+    private static Ast.Source parse(String input) {
+        return new Parser(new Lexer(input).lex()).parseSource();
+    }
+
     /**
      * Runs a callback on the given value, used for inline initialization.
      */
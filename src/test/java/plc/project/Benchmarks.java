@@ -0,0 +1,150 @@
+package plc.project;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Compares the execution engines on a few workloads. This is not a test; run
+ * its main method with the test classpath, optionally passing the names of
+ * the workloads to run.
+ */
+public final class Benchmarks {
+
+    private static final int WARMUP = 3;
+    private static final int ITERATIONS = 5;
+
+    private static final Map<String, String> WORKLOADS = new LinkedHashMap<String, String>() {{
+        put("fib", "FUN fib(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END " +
+                "FUN main(): Integer DO RETURN fib(22); END");
+        put("loop", "FUN main(): Integer DO LET total = 0; LET i = 0; WHILE i < 200000 DO total = total + i * 2; i = i + 1; END RETURN total; END");
+        put("primes", "FUN prime(n: Integer): Boolean DO LET d = 2; WHILE d * d < n + 1 DO IF n - n / d * d == 0 DO RETURN 1 > 2; END d = d + 1; END RETURN 1 < 2; END " +
+                "FUN main(): Integer DO LET count = 0; LET n = 2; WHILE n < 20000 DO IF prime(n) DO count = count + 1; END n = n + 1; END RETURN count; END");
+        put("collatz", "FUN steps(n: Integer): Integer DO LET s = 0; WHILE n > 1 DO IF (n / 2 * 2) == n DO n = n / 2; ELSE n = 3 * n + 1; END s = s + 1; END RETURN s; END " +
+                "FUN main(): Integer DO LET total = 0; LET n = 1; WHILE n < 20000 DO total = total + steps(n); n = n + 1; END RETURN total; END");
+        put("switch", dispatch(300));
+    }};
+
+    /**
+     * A generated dispatch function with the given number of cases, called
+     * with every case value in turn.
+     */
+    private static String dispatch(int cases) {
+        StringBuilder source = new StringBuilder("FUN pick(n: Integer): Integer DO SWITCH n");
+        for (int i = 0; i < cases; i++) {
+            source.append(" CASE ").append(i).append(": RETURN ").append(i % 7).append(";");
+        }
+        return source.append(" DEFAULT RETURN 0; END FUN main(): Integer DO LET total = 0; LET i = 0; ")
+                .append("WHILE i < 20000 DO total = total + pick(i - i / ").append(cases).append(" * ").append(cases)
+                .append("); i = i + 1; END RETURN total; END").toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        for (Map.Entry<String, String> workload : WORKLOADS.entrySet()) {
+            if (args.length > 0 && !Arrays.asList(args).contains(workload.getKey())) continue;
+            System.out.println(workload.getKey());
+
+            Ast.Source unanalyzed = parse(workload.getValue());
+            Ast.Source ast = parse(workload.getValue());
+            new Analyzer(new Scope(null)).visit(ast);
+            Compiler.Program program = new Compiler().visit(ast);
+            Bytecode bytecode = new BytecodeCompiler().compile(ast);
+            HandleCompiler compiler = new HandleCompiler(new Scope(null));
+            compiler.visit(ast);
+            Environment.Function handles = compiler.getScope().lookupFunction("main", 0);
+
+            measure("interpreter (scopes)", () -> new Interpreter(new Scope(null)).visit(unanalyzed).getValue());
+            measure("interpreter (frames)", () -> new Interpreter(new Scope(null)).visit(ast).getValue());
+            measure("interpreter (budget)", () -> {
+                Interpreter interpreter = new Interpreter(new Scope(null));
+                interpreter.setBudget(new Interpreter.Budget(Long.MAX_VALUE));
+                return interpreter.visit(ast).getValue();
+            });
+            Interpreter.Program loaded = new Interpreter.Program(ast);
+            measure("interpreter (program)", () -> loaded.run().getValue());
+            measure("interpreter (jit)", () -> {
+                Interpreter interpreter = new Interpreter(new Scope(null));
+                interpreter.setJitThreshold(100);
+                return interpreter.visit(ast).getValue();
+            });
+            measure("compiler", program::run);
+            measure("method handles", () -> handles.invoke(Arrays.asList()).getValue());
+            measure("virtual machine", () -> new VirtualMachine().run(bytecode));
+        }
+        if (args.length == 0 || Arrays.asList(args).contains("print")) {
+            System.out.println("print");
+            sinks();
+        }
+    }
+
+    /**
+     * Compares the print sinks of the interpreter on a script printing a
+     * hundred thousand lines, written to a temporary file.
+     */
+    private static void sinks() throws IOException {
+        Ast.Source ast = parse("FUN main(): Integer DO LET i = 0; WHILE i < 100000 DO print(i); i = i + 1; END RETURN i; END");
+        new Analyzer(new Scope(null)).visit(ast);
+        File file = File.createTempFile("plc", ".out");
+        file.deleteOnExit();
+
+        PrintStream sysout = System.out;
+        try (PrintStream stream = new PrintStream(new FileOutputStream(file), true)) {
+            System.setOut(stream);
+            measure(sysout, "standard output", () -> print(ast, Interpreter.Sink.standard()));
+        } finally {
+            System.setOut(sysout);
+        }
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            measure("buffered writer", () -> print(ast, Interpreter.Sink.of(writer)));
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            measure("channel", () -> print(ast, Interpreter.Sink.of(channel)));
+        }
+        measure("string builder", () -> print(ast, Interpreter.Sink.of(new StringBuilder())));
+        measure("none", () -> print(ast, Interpreter.Sink.none()));
+    }
+
+    private static Object print(Ast.Source ast, Interpreter.Sink sink) {
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.setSink(sink);
+        return interpreter.visit(ast).getValue();
+    }
+
+    private static Ast.Source parse(String input) {
+        return new Parser(new Lexer(input).lex()).parseSource();
+    }
+
+    /**
+     * Prints the median time of the engine over several runs, after a few
+     * runs to warm up the JIT.
+     */
+    private static void measure(String engine, Supplier<Object> run) {
+        measure(System.out, engine, run);
+    }
+
+    private static void measure(PrintStream out, String engine, Supplier<Object> run) {
+        Object result = null;
+        for (int i = 0; i < WARMUP; i++) {
+            result = run.get();
+        }
+        long[] times = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            run.get();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        out.printf("  %-24s %10.2f ms  (%s)%n", engine, times[ITERATIONS / 2] / 1e6, result);
+    }
+
+}
@@ -0,0 +1,80 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.util.stream.Stream;
+
+final class CompilerTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testProgram(String test, String input, Object expected) {
+        Ast.Source ast = parse(input);
+        Compiler.Program program = new Compiler().visit(ast);
+        if (expected != null) {
+            Assertions.assertEquals(expected, new Interpreter(new Scope(null)).visit(ast).getValue());
+            Assertions.assertEquals(expected, program.run());
+            // globals are initialized again on every run
+            Assertions.assertEquals(expected, program.run());
+        } else {
+            Assertions.assertThrows(RuntimeException.class, () -> new Interpreter(new Scope(null)).visit(ast));
+            Assertions.assertThrows(RuntimeException.class, program::run);
+        }
+    }
+
+    private static Stream<Arguments> testProgram() {
+        return Stream.of(
+                Arguments.of("Arithmetic", "FUN main(): Integer DO RETURN (1 + 2) * 3 - 8 / 2 + 2 ^ 10; END", BigInteger.valueOf(1029)),
+                Arguments.of("Decimal", "FUN f(): Decimal DO RETURN 1.5 * 2.0 - 0.5 / 2.0; END FUN main(): Integer DO print(f()); RETURN 0; END", BigInteger.ZERO),
+                Arguments.of("Concatenation", "FUN main(): Integer DO LET s = \"a\" + 1 + 'b'; IF s == \"a1b\" DO RETURN 1; END RETURN 0; END", BigInteger.ONE),
+                Arguments.of("Recursion",
+                        "FUN fib(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END FUN main(): Integer DO RETURN fib(20); END",
+                        BigInteger.valueOf(6765)),
+                Arguments.of("Loop",
+                        "VAR total: Integer = 0; FUN main(): Integer DO LET i = 0; WHILE i < 10 DO total = total + i; i = i + 1; END RETURN total; END",
+                        BigInteger.valueOf(45)),
+                Arguments.of("Return From Loop",
+                        "FUN main(): Integer DO LET i = 0; WHILE 1 < 2 DO IF i > 4 && i != 6 DO RETURN i; END i = i + 1; END RETURN 0; END",
+                        BigInteger.valueOf(5)),
+                Arguments.of("Switch",
+                        "FUN f(c: Character): Integer DO SWITCH c CASE 'a': RETURN 1; CASE 'b': RETURN 2; DEFAULT RETURN 3; END " +
+                        "FUN main(): Integer DO RETURN f('a') + f('b') * 10 + f('z') * 100; END",
+                        BigInteger.valueOf(321)),
+                Arguments.of("Lists",
+                        "LIST values: Integer = [1, 2, 3]; FUN set(xs: Integer, i: Integer) DO xs[i] = 10; END " +
+                        "FUN main(): Integer DO set(values, 1); values[2] = values[0] + values[1]; RETURN values[2]; END",
+                        BigInteger.valueOf(11)),
+                Arguments.of("Immutable Global", "VAL x: Integer = 1; FUN main(): Integer DO x = 2; RETURN x; END", null),
+                Arguments.of("Index Out of Range", "LIST values: Integer = [1]; FUN main(): Integer DO RETURN values[1]; END", null),
+                Arguments.of("Divide by Zero", "FUN main(): Integer DO RETURN 1 / 0; END", null)
+        );
+    }
+
+    @Test
+    void testPrint() {
+        PrintStream sysout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        try {
+            Ast.Source ast = parse("FUN main(): Integer DO print(\"Hello\"); print(1.5); print('c'); RETURN 0; END");
+            new Compiler().visit(ast).run();
+            Assertions.assertEquals(String.join(System.lineSeparator(), "Hello", "1.5", "c", ""), out.toString());
+        } finally {
+            System.setOut(sysout);
+        }
+    }
+
+    private static Ast.Source parse(String input) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        return ast;
+    }
+
+}
@@ -0,0 +1,118 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+
+final class ExecutionServiceTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testSubmit(String test, String source, Object value, String output) throws Exception {
+        try (ExecutionService service = new ExecutionService(4, 16)) {
+            ExecutionService.Result result = service.submit(source, Duration.ofSeconds(10)).get();
+            Assertions.assertEquals(value, result.getValue());
+            Assertions.assertEquals(output, result.getOutput());
+        }
+    }
+
+    private static Stream<Arguments> testSubmit() {
+        String n = System.lineSeparator();
+        return Stream.of(
+                Arguments.of("Main", "FUN main(): Integer DO RETURN 1; END", BigInteger.ONE, ""),
+                Arguments.of("Print",
+                        "VAR x: Integer = 1; FUN main(): Integer DO print(x); x = x + 1; print(\"x\" + x); RETURN x; END",
+                        BigInteger.TWO, "1" + n + "x2" + n)
+        );
+    }
+
+    @Test
+    void testConcurrentRuns() throws Exception {
+        String source = "VAR count: Integer = 0; " +
+                "FUN fib(n: Integer): Integer DO count = count + 1; IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END " +
+                "FUN main(): Integer DO print(count); RETURN fib(12) * 1000 + count; END";
+        try (ExecutionService service = new ExecutionService(8, 16)) {
+            List<CompletableFuture<ExecutionService.Result>> results = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                results.add(service.submit(source, Duration.ofSeconds(30)));
+            }
+            for (CompletableFuture<ExecutionService.Result> result : results) {
+                Assertions.assertEquals(BigInteger.valueOf(144 * 1000 + 465), result.get().getValue());
+                Assertions.assertEquals("0" + System.lineSeparator(), result.get().getOutput());
+            }
+            Assertions.assertSame(service.load(source), service.load(source));
+        }
+    }
+
+    @Test
+    void testErrors() throws Exception {
+        try (ExecutionService service = new ExecutionService(1, 16)) {
+            ExecutionException parse = Assertions.assertThrows(ExecutionException.class,
+                    () -> service.submit("FUN main(): Integer DO RETURN 1 END", Duration.ofSeconds(10)).get());
+            Assertions.assertTrue(parse.getCause() instanceof ParseException);
+            // the failed run gave its permit back
+            ExecutionException runtime = Assertions.assertThrows(ExecutionException.class,
+                    () -> service.submit("FUN main(): Integer DO RETURN 1 / 0; END", Duration.ofSeconds(10)).get());
+            Assertions.assertTrue(runtime.getCause() instanceof ArithmeticException);
+        }
+    }
+
+    @Test
+    void testTimeout() throws Exception {
+        try (ExecutionService service = new ExecutionService(1, 16)) {
+            CompletableFuture<ExecutionService.Result> result = service.submit(
+                    "FUN main(): Integer DO WHILE 1 < 2 DO END RETURN 0; END", Duration.ofMillis(50));
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class, result::get);
+            Assertions.assertTrue(exception.getCause() instanceof TimeoutException);
+            // the script stopped, so the only permit is available again
+            Assertions.assertEquals(BigInteger.ONE, service.submit("FUN main(): Integer DO RETURN 1; END", Duration.ofSeconds(10)).get().getValue());
+        }
+    }
+
+    @Test
+    void testExpiredBeforeStarting() {
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try (ExecutionService service = new ExecutionService(1, 16)) {
+                // scripts cancelled before they start give their permit back as well
+                for (int i = 0; i < 200; i++) {
+                    service.submit("FUN main(): Integer DO RETURN 1; END", Duration.ZERO);
+                }
+                Assertions.assertEquals(BigInteger.ONE, service.submit("FUN main(): Integer DO RETURN 1; END", Duration.ofSeconds(10)).get().getValue());
+            }
+        });
+    }
+
+    @Test
+    void testClose() throws Exception {
+        CompletableFuture<ExecutionService.Result> result;
+        try (ExecutionService service = new ExecutionService(1, 16)) {
+            result = service.submit("FUN main(): Integer DO WHILE 1 < 2 DO END RETURN 0; END", Duration.ofHours(1));
+        }
+        Assertions.assertThrows(CancellationException.class, () -> result.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testStepLimit() throws Exception {
+        try (ExecutionService service = new ExecutionService(1, 16)) {
+            service.setStepLimit(100000);
+            CompletableFuture<ExecutionService.Result> result = service.submit(
+                    "FUN main(): Integer DO WHILE 1 < 2 DO END RETURN 0; END", Duration.ofSeconds(10));
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class, result::get);
+            Assertions.assertTrue(exception.getCause() instanceof Interpreter.Aborted);
+        }
+    }
+
+}
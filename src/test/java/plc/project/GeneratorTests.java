@@ -227,10 +227,35 @@ public class GeneratorTests {
                                 init(new Ast.Expression.Literal(BigInteger.TEN), ast -> ast.setType(Environment.Type.INTEGER))
                         ), ast -> ast.setType(Environment.Type.STRING)),
                         "\"Ben\" + 10"
+                ),
+                Arguments.of("Power",
+                        // 2 ^ 10
+                        init(new Ast.Expression.Binary("^",
+                                init(new Ast.Expression.Literal(BigInteger.valueOf(2)), ast -> ast.setType(Environment.Type.INTEGER)),
+                                init(new Ast.Expression.Literal(BigInteger.TEN), ast -> ast.setType(Environment.Type.INTEGER))
+                        ), ast -> ast.setType(Environment.Type.INTEGER)),
+                        "(int) Math.pow(2, 10)"
                 )
         );
     }
 
+    /**
+     * The generated {@code (int) Math.pow(...)} agrees with the interpreter's
+     * exponentiation wherever the result fits in an int. Raising zero to a
+     * negative power is an error in the interpreter, so it is not compared.
+     */
+    @Test
+    void testPowerAgreesWithInterpreter() {
+        for (int base = -12; base <= 12; base++) {
+            for (int exponent = -4; exponent <= 40; exponent++) {
+                if (base == 0 && exponent < 0) continue;
+                BigInteger interpreted = Interpreter.power(BigInteger.valueOf(base), BigInteger.valueOf(exponent));
+                if (interpreted.bitLength() > 31) continue;
+                Assertions.assertEquals(interpreted.intValueExact(), (int) Math.pow(base, exponent), base + " ^ " + exponent);
+            }
+        }
+    }
+
     @ParameterizedTest(name = "{0}")
     @MethodSource
     void testFunctionExpression(String test, Ast.Expression.Function ast, String expected) {
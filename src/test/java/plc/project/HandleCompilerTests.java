@@ -0,0 +1,133 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Runs the features covered by the {@link InterpreterTests} as sources on
+ * both the interpreter and the method handles compiled from them, which must
+ * agree on the result and everything printed.
+ */
+final class HandleCompilerTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testProgram(String test, String input, Object expected) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+
+        if (expected != null) {
+            String interpreted = output(() -> new Interpreter(new Scope(null)).visit(ast).getValue(), expected);
+            String executed = output(() -> run(ast), expected);
+            Assertions.assertEquals(interpreted, executed);
+        } else {
+            Assertions.assertThrows(RuntimeException.class, () -> new Interpreter(new Scope(null)).visit(ast));
+            Assertions.assertThrows(RuntimeException.class, () -> run(ast));
+        }
+    }
+
+    private static Stream<Arguments> testProgram() {
+        return Stream.of(
+                Arguments.of("Main", "FUN main(): Integer DO RETURN 0; END", BigInteger.ZERO),
+                Arguments.of("Globals", "VAR x: Integer = 1; VAR y: Integer = 10; FUN main(): Integer DO RETURN x + y; END", BigInteger.valueOf(11)),
+                Arguments.of("Shadowing",
+                        "VAR x: Integer = 1; VAR y: Integer = 2; VAR z: Integer = 3; FUN f(z: Integer): Integer DO RETURN x + y + z; END " +
+                        "FUN main(): Integer DO LET y = 4; RETURN f(5); END",
+                        BigInteger.valueOf(8)),
+                Arguments.of("Declaration", "FUN main(): Integer DO LET x: Integer; LET y = 2; x = y * 3; RETURN x; END", BigInteger.valueOf(6)),
+                Arguments.of("Print", "FUN main(): Integer DO print(\"Hello, World!\"); print(1.5); print('c'); RETURN 0; END", BigInteger.ZERO),
+                Arguments.of("List",
+                        "LIST list: Integer = [1, 5, 10]; FUN main(): Integer DO list[2] = 3; print(list[0] + list[1] + list[2]); RETURN list[2]; END",
+                        BigInteger.valueOf(3)),
+                Arguments.of("Index Out of Range", "LIST list: Integer = [1]; FUN main(): Integer DO RETURN list[1]; END", null),
+                Arguments.of("Immutable", "VAL x: Integer = 1; FUN main(): Integer DO x = 2; RETURN x; END", null),
+                Arguments.of("If",
+                        "FUN f(x: Integer): Integer DO IF x > 1 DO RETURN 1; ELSE IF x == 1 DO RETURN 2; END END RETURN 3; END " +
+                        "FUN main(): Integer DO RETURN f(2) * 100 + f(1) * 10 + f(0); END",
+                        BigInteger.valueOf(123)),
+                Arguments.of("Switch",
+                        "FUN f(c: Character) DO LET x = 0; SWITCH c CASE 'a': x = 1; c = 'b'; print(x); CASE 'b': print(x + 2); DEFAULT print(5); END " +
+                        "FUN main(): Integer DO f('a'); f('b'); f('z'); RETURN 0; END",
+                        BigInteger.ZERO),
+                Arguments.of("While",
+                        "VAR num: Integer = 0; FUN main(): Integer DO LET i = 1; WHILE i < 10 DO num = num + i; i = i + 1; END RETURN num; END",
+                        BigInteger.valueOf(45)),
+                Arguments.of("Logical",
+                        "FUN t(): Boolean DO print(\"evaluated\"); RETURN 1 < 2; END " +
+                        "FUN main(): Integer DO IF 1 > 2 && t() DO RETURN 1; END IF 1 < 2 && t() DO RETURN 2; END RETURN 0; END",
+                        BigInteger.valueOf(2)),
+                Arguments.of("Comparison",
+                        "FUN main(): Integer DO IF 1.5 < 2.0 && 'b' > 'a' && \"a\" != \"b\" && 2 == 2 DO RETURN 1; END RETURN 0; END",
+                        BigInteger.ONE),
+                Arguments.of("Arithmetic",
+                        "FUN main(): Integer DO print(1.2 + 3.4); print(2.0 - 0.5); print(1.5 * 1.5); print(1.2 / 3.4); print(\"a\" + 1 + 'b'); RETURN (7 - 2) * 3 / 2 + 2 ^ 8; END",
+                        BigInteger.valueOf(263)),
+                Arguments.of("Divide by Zero", "FUN main(): Integer DO RETURN 1 / 0; END", null),
+                Arguments.of("Recursion",
+                        "FUN fib(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END FUN main(): Integer DO RETURN fib(15); END",
+                        BigInteger.valueOf(610)),
+                Arguments.of("Nil Return", "FUN f() DO print(1); END FUN main(): Integer DO f(); RETURN 0; END", BigInteger.ZERO)
+        );
+    }
+
+    @Test
+    void testHandle() throws Throwable {
+        Ast.Source ast = new Parser(new Lexer("VAR x: Integer = 1; FUN main(): Integer DO LET y = x + 2; RETURN y; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        MethodHandle main = new HandleCompiler(new Scope(null)).visit(ast);
+        Assertions.assertEquals(MethodType.methodType(Object.class), main.type());
+        Assertions.assertEquals(BigInteger.valueOf(3), (Object) main.invokeExact());
+    }
+
+    @Test
+    void testGlobalsPerRun() throws Throwable {
+        Ast.Source ast = new Parser(new Lexer("VAR x: Integer = 1; LIST xs: Integer = [1]; " +
+                "FUN main(): Integer DO x = x + 1; xs[0] = xs[0] + x; RETURN xs[0]; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        HandleCompiler compiler = new HandleCompiler(new Scope(null));
+        MethodHandle main = compiler.visit(ast);
+        // every run starts from the initial values, however main is called
+        for (int i = 0; i < 2; i++) {
+            Assertions.assertEquals(BigInteger.valueOf(3), (Object) main.invokeExact());
+            Assertions.assertEquals(BigInteger.valueOf(3), compiler.getScope().lookupFunction("main", 0).invoke(Arrays.asList()).getValue());
+        }
+    }
+
+    /**
+     * Compiles the source and calls main through the function defined in the
+     * compiler's scope.
+     */
+    private static Object run(Ast.Source ast) {
+        HandleCompiler compiler = new HandleCompiler(new Scope(null));
+        compiler.visit(ast);
+        return compiler.getScope().lookupFunction("main", 0).invoke(Arrays.asList()).getValue();
+    }
+
+    /**
+     * Runs an engine, checking its result, and returns what it printed.
+     */
+    private static String output(Supplier<Object> engine, Object expected) {
+        PrintStream sysout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out));
+        try {
+            Assertions.assertEquals(expected, engine.get());
+        } finally {
+            System.setOut(sysout);
+        }
+        return out.toString();
+    }
+
+}
@@ -6,14 +6,22 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -302,6 +310,42 @@ final class InterpreterTests {
         Assertions.assertEquals(new Character('n'), scope.lookupVariable("letter").getValue().getValue());
     }
 
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testSwitchDispatch(String test, String input, boolean table, Object expected) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(expected, new Interpreter(new Scope(null)).visit(ast).getValue());
+        Ast.Statement.Switch _switch = (Ast.Statement.Switch) ast.getFunctions().get(0).getStatements().get(0);
+        Assertions.assertEquals(table, _switch.getDispatch().isPresent());
+    }
+
+    private static Stream<Arguments> testSwitchDispatch() {
+        StringBuilder large = new StringBuilder("FUN f(x: Integer): Integer DO SWITCH x");
+        for (int i = 0; i < 500; i++) {
+            large.append(" CASE ").append(i).append(": RETURN ").append(i * 2).append(";");
+        }
+        large.append(" DEFAULT RETURN 0; END FUN main(): Integer DO RETURN f(321) + f(499) + f(500); END");
+        return Stream.of(
+                Arguments.of("Literals",
+                        "FUN f(x: String): Integer DO SWITCH x CASE \"a\": RETURN 1; CASE \"b\": RETURN 2; DEFAULT RETURN 3; END " +
+                        "FUN main(): Integer DO RETURN f(\"b\") * 10 + f(\"c\"); END",
+                        true, BigInteger.valueOf(23)),
+                Arguments.of("Every Match",
+                        "VAR r: Integer = 0; FUN f(x: Integer) DO SWITCH x CASE 1: r = r + 1; CASE 1: r = r + 10; DEFAULT r = 100; END " +
+                        "FUN main(): Integer DO f(1); RETURN r; END",
+                        true, BigInteger.valueOf(11)),
+                Arguments.of("Every Computed Match",
+                        "VAR r: Integer = 0; FUN f(x: Integer) DO SWITCH x CASE 0 + 1: r = r + 1; CASE 1: r = r + 10; DEFAULT r = 100; END " +
+                        "FUN main(): Integer DO f(1); RETURN r; END",
+                        false, BigInteger.valueOf(11)),
+                Arguments.of("Hundreds Of Cases", large.toString(), true, BigInteger.valueOf(1640)),
+                Arguments.of("Expression Values",
+                        "FUN f(x: Integer): Integer DO SWITCH x CASE 1 + 1: RETURN 1; CASE 2: RETURN 2; DEFAULT RETURN 3; END " +
+                        "FUN main(): Integer DO RETURN f(2) * 10 + f(4); END",
+                        false, BigInteger.valueOf(13))
+        );
+    }
+
     @Test
     void testWhileStatement() {
         // WHILE num < 10 DO num = num + 1; END
@@ -513,6 +557,46 @@ final class InterpreterTests {
                                 new Ast.Expression.Literal(new BigInteger("3"))
                         ),
                         new BigInteger("-512")
+                ),
+                // 7 ^ 0
+                Arguments.of("Zero Exponent",
+                        new Ast.Expression.Binary("^",
+                                new Ast.Expression.Literal(new BigInteger("7")),
+                                new Ast.Expression.Literal(new BigInteger("0"))
+                        ),
+                        new BigInteger("1")
+                ),
+                // 3 ^ 41
+                Arguments.of("Long Overflow",
+                        new Ast.Expression.Binary("^",
+                                new Ast.Expression.Literal(new BigInteger("3")),
+                                new Ast.Expression.Literal(new BigInteger("41"))
+                        ),
+                        new BigInteger("36472996377170786403")
+                ),
+                // 2 ^ -3
+                Arguments.of("Negative Exponent",
+                        new Ast.Expression.Binary("^",
+                                new Ast.Expression.Literal(new BigInteger("2")),
+                                new Ast.Expression.Literal(new BigInteger("-3"))
+                        ),
+                        new BigInteger("0")
+                ),
+                // -1 ^ -3
+                Arguments.of("Negative Exponent (Unit Base)",
+                        new Ast.Expression.Binary("^",
+                                new Ast.Expression.Literal(new BigInteger("-1")),
+                                new Ast.Expression.Literal(new BigInteger("-3"))
+                        ),
+                        new BigInteger("-1")
+                ),
+                // 0 ^ -1
+                Arguments.of("Negative Exponent (Zero Base)",
+                        new Ast.Expression.Binary("^",
+                                new Ast.Expression.Literal(new BigInteger("0")),
+                                new Ast.Expression.Literal(new BigInteger("-1"))
+                        ),
+                        null
                 )
         );
     }
@@ -582,6 +666,361 @@ final class InterpreterTests {
         test(ast, expected, new Scope(null));
     }
 
+    @Test
+    void testMemoization() {
+        // FUN fib(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END FUN main(): Integer DO RETURN fib(60); END
+        Ast.Source ast = new Parser(new Lexer("FUN fib(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END " +
+                "FUN main(): Integer DO RETURN fib(60); END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.setMemoization(8);
+        Assertions.assertEquals(new BigInteger("1548008755920"), interpreter.visit(ast).getValue());
+        Interpreter.MemoCache cache = interpreter.getMemoCache("fib", 1);
+        Assertions.assertEquals(61, cache.getMisses());
+        Assertions.assertEquals(58, cache.getHits());
+        Assertions.assertEquals(8, cache.size());
+        Assertions.assertNull(interpreter.getMemoCache("print", 1));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testFrames(String test, String input, Object expected) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(expected, new Interpreter(new Scope(null)).visit(ast).getValue());
+
+        // once analyzed, the same source runs in frames and gives the same result
+        new Analyzer(new Scope(null)).visit(ast);
+        ast.getFunctions().forEach(function -> Assertions.assertTrue(function.getFrameSize() >= function.getParameters().size()));
+        Assertions.assertEquals(expected, new Interpreter(new Scope(null)).visit(ast).getValue());
+    }
+
+    private static Stream<Arguments> testFrames() {
+        return Stream.of(
+                Arguments.of("Recursion",
+                        "FUN fact(n: Integer): Integer DO IF n < 2 DO RETURN 1; END RETURN n * fact(n - 1); END FUN main(): Integer DO RETURN fact(20); END",
+                        new BigInteger("2432902008176640000")),
+                Arguments.of("Blocks",
+                        "FUN main(): Integer DO LET x = 1; IF x < 2 DO LET y = x + 1; x = y * 10; ELSE LET y = 0; x = y; END RETURN x; END",
+                        BigInteger.valueOf(20)),
+                Arguments.of("Globals",
+                        "VAR total: Integer = 0; FUN add(x: Integer) DO total = total + x; END " +
+                        "FUN main(): Integer DO LET i = 0; WHILE i < 4 DO add(i); i = i + 1; END RETURN total; END",
+                        BigInteger.valueOf(6)),
+                Arguments.of("List Parameter",
+                        "LIST values: Integer = [1, 2, 3]; FUN set(xs: Integer, i: Integer) DO xs[i] = 10; END " +
+                        "FUN main(): Integer DO set(values, 1); RETURN values[0] + values[1] + values[2]; END",
+                        BigInteger.valueOf(14))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testReturn(String test, String input, Object expected) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        Assertions.assertEquals(expected, new Interpreter(new Scope(null)).visit(ast).getValue());
+        new Analyzer(new Scope(null)).visit(ast);
+        Assertions.assertEquals(expected, new Interpreter(new Scope(null)).visit(ast).getValue());
+    }
+
+    private static Stream<Arguments> testReturn() {
+        return Stream.of(
+                Arguments.of("Loop",
+                        "FUN main(): Integer DO LET i = 0; WHILE i < 100 DO IF i == 7 DO RETURN i; END i = i + 1; END RETURN 0 - 1; END",
+                        BigInteger.valueOf(7)),
+                Arguments.of("Nested Loops",
+                        "FUN main(): Integer DO LET i = 0; LET j = 0; WHILE i < 10 DO j = 0; WHILE j < 10 DO IF i * j == 12 DO RETURN i * 10 + j; END j = j + 1; END i = i + 1; END RETURN 0; END",
+                        BigInteger.valueOf(26)),
+                Arguments.of("Switch",
+                        "FUN f(x: Integer): Integer DO SWITCH x CASE 1: RETURN 10; CASE 1: RETURN 20; DEFAULT RETURN 30; END " +
+                        "FUN main(): Integer DO RETURN f(1) + f(2); END",
+                        BigInteger.valueOf(40)),
+                Arguments.of("Call In Return",
+                        "FUN g(x: Integer): Integer DO RETURN x + 1; END FUN f(x: Integer): Integer DO RETURN g(x) * g(x + 1); END " +
+                        "FUN main(): Integer DO RETURN f(2); END",
+                        BigInteger.valueOf(12)),
+                Arguments.of("No Return",
+                        "VAR x: Integer = 0; FUN f() DO x = 5; END FUN main(): Integer DO f(); RETURN x; END",
+                        BigInteger.valueOf(5))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testTailCalls(String test, String input, Object expected) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Assertions.assertEquals(expected, new Interpreter(new Scope(null)).visit(ast).getValue());
+        // the same calls reuse the scope of functions not running in a frame
+        ast.getFunctions().forEach(function -> function.setFrameSize(-1));
+        Assertions.assertEquals(expected, new Interpreter(new Scope(null)).visit(ast).getValue());
+    }
+
+    private static Stream<Arguments> testTailCalls() {
+        return Stream.of(
+                Arguments.of("Accumulator",
+                        "FUN sum(n: Integer, acc: Integer): Integer DO IF n < 1 DO RETURN acc; END RETURN sum(n - 1, acc + n); END " +
+                        "FUN main(): Integer DO RETURN sum(100000, 0); END",
+                        BigInteger.valueOf(5000050000L)),
+                Arguments.of("Inside Loop",
+                        "FUN count(n: Integer, steps: Integer): Integer DO LET i = 0; WHILE i < 3 DO IF n > 0 DO RETURN count(n - 1, steps + i); END i = i + 1; END RETURN steps + i; END " +
+                        "FUN main(): Integer DO RETURN count(50000, 0); END",
+                        BigInteger.valueOf(3)),
+                Arguments.of("Locals Start Over",
+                        "FUN f(n: Integer, acc: Integer): Integer DO LET x = n * 2; IF n < 1 DO RETURN acc; END RETURN f(n - 1, acc + x); END " +
+                        "FUN main(): Integer DO RETURN f(10, 0); END",
+                        BigInteger.valueOf(110)),
+                Arguments.of("Not Tail",
+                        "FUN f(n: Integer): Integer DO IF n < 1 DO RETURN 0; END RETURN f(n - 1) + 1; END " +
+                        "FUN main(): Integer DO RETURN f(100); END",
+                        BigInteger.valueOf(100))
+        );
+    }
+
+    @Test
+    void testProgram() throws Exception {
+        Ast.Source ast = new Parser(new Lexer("VAR count: Integer = 0; " +
+                "FUN fib(n: Integer): Integer DO count = count + 1; IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END " +
+                "FUN main(): Integer DO RETURN fib(15) * 10000 + count; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Interpreter.Program program = new Interpreter.Program(ast);
+        BigInteger expected = BigInteger.valueOf(610 * 10000 + 1973);
+        Assertions.assertEquals(expected, program.run().getValue());
+
+        // every run has globals of its own
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> program.run().getValue()));
+            }
+            for (Future<Object> result : results) {
+                Assertions.assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testBudget(String test, String input, long steps, boolean exceeded) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.setBudget(new Interpreter.Budget(steps));
+        if (exceeded) {
+            Interpreter.Aborted aborted = Assertions.assertThrows(Interpreter.Aborted.class, () -> interpreter.visit(ast));
+            Assertions.assertEquals("Step limit exceeded!", aborted.getMessage());
+            Assertions.assertEquals(steps + 1, aborted.getSteps());
+        } else {
+            Assertions.assertDoesNotThrow(() -> interpreter.visit(ast));
+        }
+    }
+
+    private static Stream<Arguments> testBudget() {
+        return Stream.of(
+                Arguments.of("Infinite Loop", "FUN main(): Integer DO WHILE 1 < 2 DO END RETURN 0; END", 10000L, true),
+                Arguments.of("Infinite Tail Calls",
+                        "FUN f(n: Integer): Integer DO RETURN f(n + 1); END FUN main(): Integer DO RETURN f(0); END", 5000L, true),
+                // main, then 10 iterations calling f
+                Arguments.of("Within Budget",
+                        "FUN f(n: Integer): Integer DO RETURN n; END FUN main(): Integer DO LET i = 0; WHILE i < 10 DO f(i); i = i + 1; END RETURN i; END", 21L, false),
+                Arguments.of("One Step Over",
+                        "FUN f(n: Integer): Integer DO RETURN n; END FUN main(): Integer DO LET i = 0; WHILE i < 10 DO f(i); i = i + 1; END RETURN i; END", 20L, true)
+        );
+    }
+
+    @Test
+    void testCancel() throws Exception {
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO WHILE 1 < 2 DO END RETURN 0; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Interpreter.Budget budget = new Interpreter.Budget(Long.MAX_VALUE);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Environment.PlcObject> result = executor.submit(() -> new Interpreter.Program(ast).run(Interpreter.Sink.none(), budget));
+            Thread.sleep(20);
+            budget.cancel();
+            ExecutionException exception = Assertions.assertThrows(ExecutionException.class, result::get);
+            Assertions.assertEquals("Execution cancelled!", exception.getCause().getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testSinks() {
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO LET i = 0; WHILE i < 2000 DO print(i); i = i + 1; END print('c'); RETURN i; END").lex()).parseSource();
+        String expected = IntStream.range(0, 2000).mapToObj(i -> i + System.lineSeparator()).collect(Collectors.joining()) + "c" + System.lineSeparator();
+
+        StringBuilder builder = new StringBuilder();
+        run(ast, Interpreter.Sink.of(builder));
+        Assertions.assertEquals(expected, builder.toString());
+
+        // buffered output is flushed when main returns
+        StringWriter writer = new StringWriter();
+        run(ast, Interpreter.Sink.of(new BufferedWriter(writer)));
+        Assertions.assertEquals(expected, writer.toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        run(ast, Interpreter.Sink.of(Channels.newChannel(bytes)));
+        Assertions.assertEquals(expected, bytes.toString(StandardCharsets.UTF_8));
+
+        run(ast, Interpreter.Sink.none());
+    }
+
+    @Test
+    void testSinkFlushedOnFailure() {
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO print(\"before\"); RETURN 1 / 0; END").lex()).parseSource();
+        StringWriter writer = new StringWriter();
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.setSink(Interpreter.Sink.of(new BufferedWriter(writer)));
+        Assertions.assertThrows(ArithmeticException.class, () -> interpreter.visit(ast));
+        Assertions.assertEquals("before" + System.lineSeparator(), writer.toString());
+    }
+
+    private static void run(Ast.Source ast, Interpreter.Sink sink) {
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.setSink(sink);
+        Assertions.assertEquals(BigInteger.valueOf(2000), interpreter.visit(ast).getValue());
+    }
+
+    @Test
+    void testBlockScopes() {
+        // declarations in a loop body start over every iteration
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO LET i = 0; LET s = 0; " +
+                "WHILE i < 5 DO LET square = i * i; s = s + square; i = i + 1; END RETURN s; END").lex()).parseSource();
+        Assertions.assertEquals(BigInteger.valueOf(30), new Interpreter(new Scope(null)).visit(ast).getValue());
+
+        // unscoped blocks run in the enclosing scope
+        Ast.Statement.If unscoped = new Ast.Statement.If(
+                new Ast.Expression.Access(Optional.empty(), "condition"),
+                Arrays.asList(new Ast.Statement.Declaration("name", Optional.of(new Ast.Expression.Literal(BigInteger.ONE)))),
+                Arrays.asList()
+        );
+        unscoped.setScoped(false);
+        Scope scope = new Scope(null);
+        scope.defineVariable("condition", false, Environment.create(true));
+        Assertions.assertTrue(test(unscoped, Environment.NIL.getValue(), scope).definesVariable("name"));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testIntegerOverflow(String test, Ast ast, Object expected) {
+        test(ast, expected, new Scope(null));
+    }
+
+    private static Stream<Arguments> testIntegerOverflow() {
+        BigInteger max = BigInteger.valueOf(Long.MAX_VALUE);
+        BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+        return Stream.of(
+                Arguments.of("Add",
+                        new Ast.Expression.Binary("+", new Ast.Expression.Literal(max), new Ast.Expression.Literal(BigInteger.ONE)),
+                        max.add(BigInteger.ONE)
+                ),
+                Arguments.of("Subtract",
+                        new Ast.Expression.Binary("-", new Ast.Expression.Literal(min), new Ast.Expression.Literal(BigInteger.ONE)),
+                        min.subtract(BigInteger.ONE)
+                ),
+                Arguments.of("Multiply",
+                        new Ast.Expression.Binary("*", new Ast.Expression.Literal(max), new Ast.Expression.Literal(max)),
+                        max.multiply(max)
+                ),
+                Arguments.of("Divide",
+                        new Ast.Expression.Binary("/", new Ast.Expression.Literal(min), new Ast.Expression.Literal(BigInteger.valueOf(-1))),
+                        min.negate()
+                ),
+                Arguments.of("Divide by Zero",
+                        new Ast.Expression.Binary("/", new Ast.Expression.Literal(BigInteger.ONE), new Ast.Expression.Literal(BigInteger.ZERO)),
+                        null
+                ),
+                Arguments.of("Large Operand",
+                        new Ast.Expression.Binary("-", new Ast.Expression.Literal(max.add(BigInteger.ONE)), new Ast.Expression.Literal(BigInteger.ONE)),
+                        max
+                ),
+                Arguments.of("Mixed Comparison",
+                        new Ast.Expression.Binary("<", new Ast.Expression.Literal(max), new Ast.Expression.Literal(max.add(BigInteger.ONE))),
+                        true
+                ),
+                Arguments.of("Mixed Equality",
+                        new Ast.Expression.Binary("==",
+                                new Ast.Expression.Binary("-", new Ast.Expression.Literal(max.add(BigInteger.ONE)), new Ast.Expression.Literal(BigInteger.ONE)),
+                                new Ast.Expression.Literal(max)),
+                        true
+                )
+        );
+    }
+
+    @Test
+    void testSharedValues() {
+        Assertions.assertSame(Environment.create(true), Environment.create(1 < 2));
+        Assertions.assertSame(Environment.create(""), Environment.create(new String("")));
+        Assertions.assertSame(Environment.create(BigInteger.TEN), Environment.createInteger(10));
+        Assertions.assertEquals(BigInteger.TEN, Environment.createInteger(10).getValue());
+        Assertions.assertEquals(BigInteger.valueOf(100000), Environment.createInteger(100000).getValue());
+
+        // 2 + 3 == 5
+        Ast.Expression.Binary sum = new Ast.Expression.Binary("+", new Ast.Expression.Literal(BigInteger.valueOf(2)), new Ast.Expression.Literal(BigInteger.valueOf(3)));
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        Assertions.assertSame(Environment.createInteger(5), interpreter.visit(sum));
+        Assertions.assertSame(Environment.create(true), interpreter.visit(new Ast.Expression.Binary("==", sum, new Ast.Expression.Literal(BigInteger.valueOf(5)))));
+    }
+
+    @Test
+    void testCallCache() {
+        Scope scope = new Scope(null);
+        scope.defineFunction("f", 0, args -> Environment.create("first"));
+        Ast.Expression.Function call = new Ast.Expression.Function("f", Arrays.asList());
+        Interpreter interpreter = new Interpreter(scope);
+
+        Assertions.assertEquals("first", interpreter.visit(call).getValue());
+        Assertions.assertEquals("first", interpreter.visit(call).getValue());
+        Assertions.assertEquals(1, call.getCallCache().getMisses());
+
+        Scope shadowing = new Scope(scope);
+        shadowing.defineFunction("f", 0, args -> Environment.create("shadowed"));
+        Assertions.assertEquals("shadowed", new Interpreter(shadowing).visit(call).getValue());
+        Assertions.assertEquals("first", interpreter.visit(call).getValue());
+
+        scope.removeFunction("f", 0);
+        scope.defineFunction("f", 0, args -> Environment.create("second"));
+        Assertions.assertEquals("second", interpreter.visit(call).getValue());
+        Assertions.assertEquals("shadowed", new Interpreter(shadowing).visit(call).getValue());
+
+        scope.removeFunction("f", 0);
+        Assertions.assertThrows(RuntimeException.class, () -> interpreter.visit(call));
+    }
+
+    @Test
+    void testCallCacheVersions() {
+        Scope scope = new Scope(null);
+        scope.defineFunction("f", 0, args -> Environment.create("outer"));
+        Scope block = new Scope(scope);
+        Scope inner = new Scope(block);
+        Ast.Expression.Function call = new Ast.Expression.Function("f", Arrays.asList());
+        Assertions.assertEquals("outer", call.getCallCache().lookup(inner).invoke(Arrays.asList()).getValue());
+
+        // defining functions in an unrelated scope keeps the entry
+        new Scope(null).defineFunction("g", 0, args -> Environment.NIL);
+        call.getCallCache().lookup(inner);
+        Assertions.assertEquals(1, call.getCallCache().getMisses());
+
+        // a scope in between that defines its first function is no longer skipped over
+        block.defineFunction("f", 0, args -> Environment.create("block"));
+        Assertions.assertEquals("block", call.getCallCache().lookup(inner).invoke(Arrays.asList()).getValue());
+        Assertions.assertEquals("outer", call.getCallCache().lookup(scope).invoke(Arrays.asList()).getValue());
+    }
+
+    @Test
+    void testCallCacheRecursion() {
+        Ast.Source ast = new Parser(new Lexer("FUN main(): Integer DO RETURN f(15); END " +
+                "FUN f(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN f(n - 1) + f(n - 2); END").lex()).parseSource();
+        Assertions.assertEquals(BigInteger.valueOf(610), new Interpreter(new Scope(null)).visit(ast).getValue());
+        Ast.Statement.Return body = (Ast.Statement.Return) ast.getFunctions().get(1).getStatements().get(1);
+        Ast.Expression.Binary sum = (Ast.Expression.Binary) body.getValue();
+        Assertions.assertEquals(1, ((Ast.Expression.Function) sum.getLeft()).getCallCache().getMisses());
+    }
+
     private static Scope test(Ast ast, Object expected, Scope scope) {
         Interpreter interpreter = new Interpreter(scope);
         if (expected != null) {
@@ -0,0 +1,90 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.stream.Stream;
+
+final class JitTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testCompiled(String test, String input, int arity, boolean compiled) {
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.setJitThreshold(3);
+        Object result = interpreter.visit(analyze(input)).getValue();
+
+        Assertions.assertEquals(new Interpreter(new Scope(null)).visit(analyze(input)).getValue(), result);
+        Assertions.assertEquals(compiled, interpreter.getJitCounter("f", arity).getCompiled());
+    }
+
+    private static Stream<Arguments> testCompiled() {
+        return Stream.of(
+                Arguments.of("Recursion",
+                        "FUN main(): Integer DO RETURN f(20); END " +
+                        "FUN f(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN f(n - 1) + f(n - 2); END",
+                        1, true),
+                Arguments.of("Loop",
+                        "FUN main(): Integer DO LET i = 0; LET s = 0; WHILE i < 10 DO s = s + f(i, 100); i = i + 1; END RETURN s; END " +
+                        "FUN f(a: Integer, b: Integer): Integer DO LET s = 0; WHILE a < b DO s = s + a / 3; a = a + 1; END RETURN s; END",
+                        2, true),
+                Arguments.of("Booleans",
+                        "FUN main(): Integer DO LET i = 0; LET s = 0; WHILE i < 10 DO s = s + f(i); i = i + 1; END RETURN s; END " +
+                        "FUN f(x: Integer): Integer DO LET even: Boolean = (x / 2 * 2) == x; LET big: Boolean = x > 5; IF even && big && (x != 8) DO RETURN 1; END RETURN 0; END",
+                        1, true),
+                Arguments.of("Overflow",
+                        "FUN main(): Integer DO LET i = 0; LET s = 0; WHILE i < 10 DO s = s + f(i * 1000000); i = i + 1; END RETURN s; END " +
+                        "FUN f(x: Integer): Integer DO RETURN x * x * x * x; END",
+                        1, true),
+                Arguments.of("Missing Return",
+                        "FUN main(): Integer DO LET i = 0; WHILE i < 10 DO f(i); i = i + 1; END RETURN 0; END " +
+                        "FUN f(x: Integer): Integer DO IF x > 5 DO RETURN x; END END",
+                        1, true),
+                Arguments.of("Tail Recursion",
+                        "FUN main(): Integer DO LET i = 0; LET s = 0; WHILE i < 10 DO s = s + f(i * 10000, 0); i = i + 1; END RETURN s; END " +
+                        "FUN f(n: Integer, acc: Integer): Integer DO IF n < 1 DO RETURN acc; END RETURN f(n - 1, acc + 2); END",
+                        2, true),
+                Arguments.of("Global",
+                        "VAL offset: Integer = 7; FUN main(): Integer DO RETURN f(f(f(f(1)))); END " +
+                        "FUN f(x: Integer): Integer DO RETURN x + offset; END",
+                        1, false),
+                Arguments.of("Print",
+                        "FUN main(): Integer DO RETURN f(f(f(f(1)))); END " +
+                        "FUN f(x: Integer): Integer DO print(x); RETURN x + 1; END",
+                        1, false),
+                Arguments.of("Decimal",
+                        "FUN main(): Integer DO IF f(f(f(f(1.0)))) > 4.5 DO RETURN 1; END RETURN 0; END " +
+                        "FUN f(x: Decimal): Decimal DO RETURN x + 1.0; END",
+                        1, false)
+        );
+    }
+
+    @Test
+    void testDivideByZero() {
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        interpreter.setJitThreshold(1);
+        Ast.Source ast = analyze("FUN main(): Integer DO RETURN f(1, 0); END FUN f(x: Integer, y: Integer): Integer DO RETURN x / y; END");
+        Assertions.assertThrows(ArithmeticException.class, () -> interpreter.visit(ast));
+        Assertions.assertTrue(interpreter.getJitCounter("f", 2).getCompiled());
+    }
+
+    @Test
+    void testCompile() {
+        Ast.Source ast = analyze("FUN main(): Integer DO RETURN 0; END " +
+                "FUN f(n: Integer): Integer DO LET a = 0; LET b = 1; WHILE n > 0 DO LET c = a + b; a = b; b = c; n = n - 1; END RETURN a; END");
+        Jit.Code code = Jit.compile(ast.getFunctions().get(1)).get();
+        Assertions.assertEquals(55, code.invoke(new long[] {10}));
+        Assertions.assertEquals(4660046610375530309L, code.invoke(new long[] {91}));
+        Assertions.assertThrows(ArithmeticException.class, () -> code.invoke(new long[] {92}));
+    }
+
+    private static Ast.Source analyze(String input) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        return ast;
+    }
+
+}
@@ -0,0 +1,100 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+final class OptimizerTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testFolding(String test, String input, Object expected) {
+        Ast.Source ast = optimize(input);
+        Ast.Statement.Return statement = (Ast.Statement.Return) ast.getFunctions().get(0).getStatements().get(0);
+        if (expected != null) {
+            Assertions.assertTrue(statement.getValue() instanceof Ast.Expression.Literal, statement.getValue().toString());
+            Assertions.assertEquals(expected, ((Ast.Expression.Literal) statement.getValue()).getLiteral());
+        } else {
+            Assertions.assertFalse(statement.getValue() instanceof Ast.Expression.Literal, statement.getValue().toString());
+        }
+    }
+
+    private static Stream<Arguments> testFolding() {
+        return Stream.of(
+                Arguments.of("Arithmetic", "FUN main(): Integer DO RETURN 1 + 2 * 3; END", BigInteger.valueOf(7)),
+                Arguments.of("Group", "FUN main(): Integer DO RETURN (1 + 2) * 3; END", BigInteger.valueOf(9)),
+                Arguments.of("Concatenation", "FUN f(): String DO RETURN \"a\" + 1; END FUN main(): Integer DO f(); RETURN 0; END", "a1"),
+                Arguments.of("Comparison", "FUN f(): Boolean DO RETURN 1 < 2; END FUN main(): Integer DO f(); RETURN 0; END", true),
+                Arguments.of("Immutable Global", "VAL x: Integer = 2 * 3; FUN main(): Integer DO RETURN x + 1; END", BigInteger.valueOf(7)),
+                Arguments.of("Mutable Global", "VAR x: Integer = 2; FUN main(): Integer DO RETURN x + 1; END", null),
+                Arguments.of("Divide by Zero", "FUN main(): Integer DO RETURN 1 / 0; END", null),
+                Arguments.of("Integer Overflow", "FUN main(): Integer DO RETURN 2147483647 + 1; END", null)
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testInterpreter(String test, String input, Object expected) {
+        Ast.Source ast = optimize(input);
+        Interpreter interpreter = new Interpreter(new Scope(null));
+        if (expected != null) {
+            Assertions.assertEquals(expected, interpreter.visit(ast).getValue());
+        } else {
+            Assertions.assertThrows(RuntimeException.class, () -> interpreter.visit(ast));
+        }
+    }
+
+    private static Stream<Arguments> testInterpreter() {
+        return Stream.of(
+                Arguments.of("Propagation", "VAL x: Integer = 4; VAR y: Integer = 1; FUN main(): Integer DO y = x * x; RETURN y + x; END", BigInteger.valueOf(20)),
+                Arguments.of("Divide by Zero", "VAL zero: Integer = 0; FUN main(): Integer DO RETURN 1 / zero; END", null),
+                // the tail call only runs in constant stack if the optimizer keeps the analyzer's flags
+                Arguments.of("Deep Tail Call",
+                        "FUN count(n: Integer, total: Integer): Integer DO IF n < 1 DO RETURN total; END RETURN count(n - 1, total + 1); END " +
+                        "FUN main(): Integer DO RETURN count(200000, 0); END",
+                        BigInteger.valueOf(200000))
+        );
+    }
+
+    @Test
+    void testUnreachableFunctions() {
+        Ast.Source ast = optimize("VAR used: Integer = 1; VAR unused: Integer = 2; VAL folded: Integer = 3; " +
+                "FUN library(): Integer DO RETURN unused; END " +
+                "FUN helper(x: Integer): Integer DO RETURN x + used + folded; END " +
+                "FUN main(): Integer DO RETURN helper(1); END");
+        Assertions.assertEquals(Arrays.asList("used"), ast.getGlobals().stream().map(Ast.Global::getName).collect(Collectors.toList()));
+        Assertions.assertEquals(Arrays.asList("helper", "main"), ast.getFunctions().stream().map(Ast.Function::getName).collect(Collectors.toList()));
+        Assertions.assertEquals(BigInteger.valueOf(5), new Interpreter(new Scope(null)).visit(ast).getValue());
+    }
+
+    @Test
+    void testDeadStatements() {
+        Ast.Source ast = optimize("FUN main(): Integer DO " +
+                "IF 1 < 2 DO print(1); ELSE print(2); END " +
+                "IF 1 > 2 DO print(3); END " +
+                "IF 1 < 2 DO LET x = 4; print(x); END " +
+                "WHILE 1 > 2 DO print(5); END " +
+                "RETURN 0; print(6); END");
+        List<Ast.Statement> statements = ast.getFunctions().get(0).getStatements();
+        Assertions.assertEquals(3, statements.size());
+        Assertions.assertTrue(statements.get(0) instanceof Ast.Statement.Expression);
+        Assertions.assertTrue(statements.get(1) instanceof Ast.Statement.If);
+        Assertions.assertEquals(2, ((Ast.Statement.If) statements.get(1)).getThenStatements().size());
+        Assertions.assertTrue(statements.get(2) instanceof Ast.Statement.Return);
+    }
+
+    private static Ast.Source optimize(String input) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        return (Ast.Source) new Optimizer().visit(ast);
+    }
+
+}
@@ -0,0 +1,96 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+final class RangeAnalyzerTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void testPrimitive(String test, String input, List<Boolean> expected, BigInteger result) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        new RangeAnalyzer().visit(ast);
+
+        List<Boolean> primitive = new ArrayList<>();
+        collect(ast.getFunctions().get(ast.getFunctions().size() - 1).getStatements(), primitive);
+        Assertions.assertEquals(expected, primitive);
+        Assertions.assertEquals(result, new Interpreter(new Scope(null)).visit(ast).getValue());
+    }
+
+    private static Stream<Arguments> testPrimitive() {
+        return Stream.of(
+                // LET i = 0; WHILE i < 1000 DO i = i + 1; END RETURN i;
+                Arguments.of("Loop Counter",
+                        "FUN main(): Integer DO LET i = 0; WHILE i < 1000 DO i = i + 1; END RETURN i; END",
+                        Arrays.asList(true), BigInteger.valueOf(1000)),
+                // LET a = 1; WHILE a < 100 DO a = a * 2; END RETURN a - 1;
+                Arguments.of("Doubling",
+                        "FUN main(): Integer DO LET a = 1; WHILE a < 100 DO a = a * 2; END RETURN a - 1; END",
+                        Arrays.asList(true, true), BigInteger.valueOf(127)),
+                // LET s = 0; LET i = 0; WHILE i < 10 DO s = s + i; i = i + 1; END RETURN s;
+                Arguments.of("Unbounded Accumulator",
+                        "FUN main(): Integer DO LET s = 0; LET i = 0; WHILE i < 10 DO s = s + i; i = i + 1; END RETURN s; END",
+                        Arrays.asList(false, true), BigInteger.valueOf(45)),
+                // IF x > 0 DO RETURN x - 1; END RETURN x * x;
+                Arguments.of("Parameter",
+                        "FUN main(): Integer DO RETURN f(3); END FUN f(x: Integer): Integer DO IF x > 0 DO RETURN x - 1; END RETURN x * x; END",
+                        Arrays.asList(false, false), BigInteger.valueOf(2)),
+                // IF x > 0 && x < 100 DO RETURN x * x; END RETURN 0;
+                Arguments.of("Guarded Parameter",
+                        "FUN main(): Integer DO RETURN f(9); END FUN f(x: Integer): Integer DO IF x > 0 && x < 100 DO RETURN x * x; END RETURN 0; END",
+                        Arrays.asList(true), BigInteger.valueOf(81)),
+                // VAL big: Integer = 2000000000; RETURN big * big * big;
+                Arguments.of("Overflow",
+                        "VAL big: Integer = 2000000000; FUN main(): Integer DO RETURN big * big * big; END",
+                        Arrays.asList(true, false), new BigInteger("8000000000000000000000000000")),
+                // every matching case runs, so the second starts from what the first assigned
+                Arguments.of("Matching Cases",
+                        "FUN main(): Integer DO LET c = 2000000; LET x = c * c * 1000; IF 1 < 2 DO SWITCH 1 CASE 1: x = x * 1000; CASE 1: x = x * 1000; DEFAULT x = 0; END RETURN x; END",
+                        Arrays.asList(true, false), new BigInteger("4000000000000000000000"))
+        );
+    }
+
+    /**
+     * Collects the primitive flag of every arithmetic expression in the
+     * statements, in evaluation order.
+     */
+    private static void collect(List<Ast.Statement> statements, List<Boolean> primitive) {
+        for (Ast.Statement statement : statements) {
+            if (statement instanceof Ast.Statement.While) {
+                collect(((Ast.Statement.While) statement).getStatements(), primitive);
+            } else if (statement instanceof Ast.Statement.If) {
+                collect(((Ast.Statement.If) statement).getThenStatements(), primitive);
+                collect(((Ast.Statement.If) statement).getElseStatements(), primitive);
+            } else if (statement instanceof Ast.Statement.Switch) {
+                for (Ast.Statement.Case _case : ((Ast.Statement.Switch) statement).getCases()) {
+                    collect(_case.getStatements(), primitive);
+                }
+            } else if (statement instanceof Ast.Statement.Assignment) {
+                collect(((Ast.Statement.Assignment) statement).getValue(), primitive);
+            } else if (statement instanceof Ast.Statement.Return) {
+                collect(((Ast.Statement.Return) statement).getValue(), primitive);
+            }
+        }
+    }
+
+    private static void collect(Ast.Expression expression, List<Boolean> primitive) {
+        if (expression instanceof Ast.Expression.Binary) {
+            Ast.Expression.Binary binary = (Ast.Expression.Binary) expression;
+            collect(binary.getLeft(), primitive);
+            collect(binary.getRight(), primitive);
+            if ("+-*/".contains(binary.getOperator())) {
+                primitive.add(binary.getPrimitive());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,168 @@
+package plc.project;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.math.BigInteger;
+import java.util.stream.Stream;
+
+/**
+ * Runs the sources of the {@link InterpreterTests} on both the interpreter and
+ * the virtual machine, which must agree on the result and everything printed.
+ * Most of those tests build unanalyzed ASTs by hand, which cannot be compiled,
+ * so the features they cover are written out as sources here as well.
+ */
+final class VirtualMachineTests {
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource({"testProgram", "plc.project.InterpreterTests#testFrames", "plc.project.InterpreterTests#testReturn",
+            "plc.project.InterpreterTests#testTailCalls"})
+    void testProgram(String test, String input, Object expected) {
+        Ast.Source ast = new Parser(new Lexer(input).lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Bytecode bytecode = new BytecodeCompiler().compile(ast);
+
+        if (expected != null) {
+            StringBuilder interpreted = new StringBuilder();
+            Interpreter interpreter = new Interpreter(new Scope(null));
+            interpreter.setSink(Interpreter.Sink.of(interpreted));
+            Assertions.assertEquals(expected, interpreter.visit(ast).getValue());
+
+            StringBuilder executed = new StringBuilder();
+            VirtualMachine machine = new VirtualMachine();
+            machine.setSink(Interpreter.Sink.of(executed));
+            Assertions.assertEquals(expected, machine.run(bytecode));
+            Assertions.assertEquals(interpreted.toString(), executed.toString());
+        } else {
+            Assertions.assertThrows(RuntimeException.class, () -> new Interpreter(new Scope(null)).visit(ast));
+            Assertions.assertThrows(RuntimeException.class, () -> new VirtualMachine().run(bytecode));
+        }
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("plc.project.InterpreterTests#testSwitchDispatch")
+    void testSwitchDispatch(String test, String input, boolean table, Object expected) {
+        testProgram(test, input, expected);
+    }
+
+    private static Stream<Arguments> testProgram() {
+        return Stream.of(
+                Arguments.of("Main", "FUN main(): Integer DO RETURN 0; END", BigInteger.ZERO),
+                Arguments.of("Globals", "VAR x: Integer = 1; VAR y: Integer = 10; FUN main(): Integer DO RETURN x + y; END", BigInteger.valueOf(11)),
+                Arguments.of("Shadowing",
+                        "VAR x: Integer = 1; VAR y: Integer = 2; VAR z: Integer = 3; FUN f(z: Integer): Integer DO RETURN x + y + z; END " +
+                        "FUN main(): Integer DO LET y = 4; RETURN f(5); END",
+                        BigInteger.valueOf(8)),
+                Arguments.of("Declaration", "FUN main(): Integer DO LET x: Integer; LET y = 2; x = y * 3; RETURN x; END", BigInteger.valueOf(6)),
+                Arguments.of("Print", "FUN main(): Integer DO print(\"Hello, World!\"); print(1.5); print('c'); RETURN 0; END", BigInteger.ZERO),
+                Arguments.of("List",
+                        "LIST list: Integer = [1, 5, 10]; FUN main(): Integer DO list[2] = 3; print(list[0] + list[1] + list[2]); RETURN list[2]; END",
+                        BigInteger.valueOf(3)),
+                Arguments.of("Index Out of Range", "LIST list: Integer = [1]; FUN main(): Integer DO RETURN list[1]; END", null),
+                Arguments.of("Negative Index", "LIST list: Integer = [1]; FUN main(): Integer DO RETURN list[0 - 1]; END", null),
+                Arguments.of("List Assignment Out of Range", "LIST list: Integer = [1]; FUN main(): Integer DO list[1] = 2; RETURN 0; END", null),
+                Arguments.of("Uninitialized Global", "VAR x: Integer; FUN main(): Integer DO print(x); x = 3; RETURN x; END", BigInteger.valueOf(3)),
+                Arguments.of("Global Initializers",
+                        "VAR x: Integer = 2; VAL y: Integer = x * 3; LIST list: Integer = [1, 2]; FUN main(): Integer DO x = y + list[1]; RETURN x; END",
+                        BigInteger.valueOf(8)),
+                Arguments.of("Immutable", "VAL x: Integer = 1; FUN main(): Integer DO x = 2; RETURN x; END", null),
+                Arguments.of("If",
+                        "FUN f(x: Integer): Integer DO IF x > 1 DO RETURN 1; ELSE IF x == 1 DO RETURN 2; END END RETURN 3; END " +
+                        "FUN main(): Integer DO RETURN f(2) * 100 + f(1) * 10 + f(0); END",
+                        BigInteger.valueOf(123)),
+                Arguments.of("Switch",
+                        "FUN f(c: Character) DO LET x = 0; SWITCH c CASE 'a': x = 1; c = 'b'; print(x); CASE 'b': print(x + 2); DEFAULT print(5); END " +
+                        "FUN main(): Integer DO f('a'); f('b'); f('z'); RETURN 0; END",
+                        BigInteger.ZERO),
+                Arguments.of("While",
+                        "VAR num: Integer = 0; FUN main(): Integer DO LET i = 1; WHILE i < 10 DO num = num + i; i = i + 1; END RETURN num; END",
+                        BigInteger.valueOf(45)),
+                Arguments.of("Logical",
+                        "FUN t(): Boolean DO print(\"evaluated\"); RETURN 1 < 2; END " +
+                        "FUN main(): Integer DO IF 1 > 2 && t() DO RETURN 1; END IF 1 < 2 && t() DO RETURN 2; END RETURN 0; END",
+                        BigInteger.valueOf(2)),
+                Arguments.of("Comparison",
+                        "FUN main(): Integer DO IF 1.5 < 2.0 && 'b' > 'a' && \"a\" != \"b\" && 2 == 2 DO RETURN 1; END RETURN 0; END",
+                        BigInteger.ONE),
+                Arguments.of("String Comparison",
+                        "FUN lt(a: Comparable, b: Comparable): Boolean DO RETURN a < b; END " +
+                        "FUN main(): Integer DO IF lt(\"a\", \"b\") && lt('a', 'b') DO RETURN 1; END RETURN 0; END",
+                        BigInteger.ONE),
+                Arguments.of("Mixed Comparison",
+                        "FUN lt(a: Comparable, b: Comparable): Boolean DO RETURN a < b; END FUN main(): Integer DO IF lt(\"a\", 'b') DO RETURN 1; END RETURN 0; END",
+                        null),
+                Arguments.of("Mixed Numbers",
+                        "FUN lt(a: Comparable, b: Comparable): Boolean DO RETURN a < b; END FUN main(): Integer DO IF lt(1, 2.0) DO RETURN 1; END RETURN 0; END",
+                        null),
+                Arguments.of("Arithmetic",
+                        "FUN main(): Integer DO print(1.2 + 3.4); print(2.0 - 0.5); print(1.5 * 1.5); print(1.2 / 3.4); print(\"a\" + 1 + 'b'); RETURN (7 - 2) * 3 / 2 + 2 ^ 8; END",
+                        BigInteger.valueOf(263)),
+                Arguments.of("Divide by Zero", "FUN main(): Integer DO RETURN 1 / 0; END", null),
+                Arguments.of("Recursion",
+                        "FUN fib(n: Integer): Integer DO IF n < 2 DO RETURN n; END RETURN fib(n - 1) + fib(n - 2); END FUN main(): Integer DO RETURN fib(15); END",
+                        BigInteger.valueOf(610)),
+                Arguments.of("Nested While And Switch",
+                        "FUN f(n: Integer): Integer DO LET i = 0; WHILE i < 10 DO WHILE i < 10 DO IF 1 < 2 DO SWITCH i CASE 3: RETURN n * 10 + i; DEFAULT i = i + 1; END END END RETURN 0; END " +
+                        "FUN main(): Integer DO RETURN f(4); END",
+                        BigInteger.valueOf(43)),
+                Arguments.of("Nil Return", "FUN f() DO print(1); END FUN main(): Integer DO f(); RETURN 0; END", BigInteger.ZERO)
+        );
+    }
+
+    @Test
+    void testStackLimit() {
+        Ast.Source ast = new Parser(new Lexer("FUN depth(n: Integer): Integer DO IF n < 1 DO RETURN 0; END RETURN depth(n - 1) + 1; END " +
+                "FUN main(): Integer DO RETURN depth(200000); END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Bytecode bytecode = new BytecodeCompiler().compile(ast);
+        Assertions.assertEquals(BigInteger.valueOf(200000), new VirtualMachine().run(bytecode));
+
+        VirtualMachine machine = new VirtualMachine();
+        machine.setStackLimit(1000);
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> machine.run(bytecode));
+        Assertions.assertEquals("Stack limit exceeded!", exception.getMessage());
+    }
+
+    @Test
+    void testStackLimitRegisters() {
+        Ast.Source ast = new Parser(new Lexer("FUN depth(n: Integer): Integer DO IF n < 1 DO RETURN 0; END RETURN depth(n - 1) + 1; END " +
+                "FUN main(): Integer DO RETURN depth(1000); END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        Bytecode bytecode = new BytecodeCompiler().compile(ast);
+        int depth = bytecode.getFunctions().get(0).getRegisters();
+        int main = bytecode.getFunctions().get(1).getRegisters();
+
+        // the limit counts the registers of every frame waiting for a call to return
+        VirtualMachine machine = new VirtualMachine();
+        machine.setStackLimit(main + 1000 * depth);
+        Assertions.assertEquals(BigInteger.valueOf(1000), machine.run(bytecode));
+        machine.setStackLimit(main + 1000 * depth - 1);
+        RuntimeException exception = Assertions.assertThrows(RuntimeException.class, () -> machine.run(bytecode));
+        Assertions.assertEquals("Stack limit exceeded!", exception.getMessage());
+    }
+
+    @Test
+    void testDisassemble() {
+        Ast.Source ast = new Parser(new Lexer("VAR x: Integer = 1; FUN main(): Integer DO LET y = x + 2; RETURN y; END").lex()).parseSource();
+        new Analyzer(new Scope(null)).visit(ast);
+        String n = System.lineSeparator();
+        Assertions.assertEquals(
+                "0: main/0 (4 registers)" + n +
+                "     0  LOAD_GLOBAL      r1, g0" + n +
+                "     3  LOAD_CONST       r2, #0 (2)" + n +
+                "     6  ADD_INT          r0, r1, r2" + n +
+                "    10  RETURN           r0" + n +
+                "    12  LOAD_CONST       r1, #1 (nil)" + n +
+                "    15  RETURN           r1" + n +
+                "1: <globals>/0 (1 registers)" + n +
+                "     0  LOAD_CONST       r0, #2 (1)" + n +
+                "     3  STORE_GLOBAL     g0, r0" + n +
+                "     6  LOAD_CONST       r0, #1 (nil)" + n +
+                "     9  RETURN           r0" + n,
+                new BytecodeCompiler().compile(ast).disassemble());
+    }
+
+}